@@ -67,6 +67,7 @@ CREATE TABLE IF NOT EXISTS books (
     appearance VARCHAR(500),
     characters TEXT,
     content TEXT NOT NULL,
+    document TEXT,
     pdf_path VARCHAR(500),
     pdf_ready BOOLEAN NOT NULL DEFAULT false,
     is_public BOOLEAN NOT NULL DEFAULT false,
@@ -124,6 +125,15 @@ BEGIN
         RAISE NOTICE 'books.characters kolonu eklendi';
     END IF;
     
+    -- document kolonu
+    IF NOT EXISTS (
+        SELECT 1 FROM information_schema.columns 
+        WHERE table_name = 'books' AND column_name = 'document'
+    ) THEN
+        ALTER TABLE books ADD COLUMN document TEXT;
+        RAISE NOTICE 'books.document kolonu eklendi';
+    END IF;
+    
     -- pdf_path kolonu
     IF NOT EXISTS (
         SELECT 1 FROM information_schema.columns 
@@ -216,13 +226,95 @@ CREATE TABLE IF NOT EXISTS announcements (
 );
 
 -- =====================================================
--- 4. İNDEKSLER
+-- 4. GENERATION_CACHE TABLOSU
+-- =====================================================
+CREATE TABLE IF NOT EXISTS generation_cache (
+    cache_key VARCHAR(64) PRIMARY KEY,
+    content TEXT NOT NULL,
+    hit_count BIGINT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- =====================================================
+-- 5. IDEMPOTENCY_KEYS TABLOSU
+-- =====================================================
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    key_hash VARCHAR(64) PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    request_hash VARCHAR(64) NOT NULL,
+    job_id VARCHAR(36) NOT NULL,
+    book_id BIGINT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL
+);
+
+-- =====================================================
+-- 6. PDF_RENDER_JOBS TABLOSU
+-- =====================================================
+CREATE TABLE IF NOT EXISTS pdf_render_jobs (
+    id BIGSERIAL PRIMARY KEY,
+    book_id BIGINT NOT NULL UNIQUE,
+    language VARCHAR(50),
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL,
+    last_error TEXT,
+    lease_owner VARCHAR(100),
+    lease_expires_at TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Eksik kolonları ekle
+ALTER TABLE pdf_render_jobs ADD COLUMN IF NOT EXISTS lease_owner VARCHAR(100);
+ALTER TABLE pdf_render_jobs ADD COLUMN IF NOT EXISTS lease_expires_at TIMESTAMP;
+
+-- =====================================================
+-- 7. GENERATION_JOBS TABLOSU
+-- =====================================================
+CREATE TABLE IF NOT EXISTS generation_jobs (
+    id VARCHAR(36) PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    lane VARCHAR(20) NOT NULL,
+    request TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    book_id BIGINT,
+    error TEXT,
+    retry_after_seconds BIGINT,
+    idempotency_key_hash VARCHAR(64),
+    cancel_reason VARCHAR(50),
+    attempts INTEGER NOT NULL DEFAULT 0,
+    deadline_at TIMESTAMP,
+    lease_owner VARCHAR(100),
+    lease_expires_at TIMESTAMP,
+    batch_id VARCHAR(36),
+    batch_index INTEGER,
+    after_job_id VARCHAR(36),
+    render_queued BOOLEAN NOT NULL DEFAULT FALSE,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Eksik kolonları ekle
+ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS batch_id VARCHAR(36);
+ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS batch_index INTEGER;
+ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS after_job_id VARCHAR(36);
+ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS render_queued BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- =====================================================
+-- 8. İNDEKSLER
 -- =====================================================
 CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
 CREATE INDEX IF NOT EXISTS idx_books_user_id ON books(user_id);
 CREATE INDEX IF NOT EXISTS idx_books_is_public ON books(is_public);
 CREATE INDEX IF NOT EXISTS idx_books_created_at ON books(created_at);
 CREATE INDEX IF NOT EXISTS idx_announcements_is_active ON announcements(is_active);
+CREATE INDEX IF NOT EXISTS idx_generation_cache_created_at ON generation_cache(created_at);
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_expires_at ON idempotency_keys(expires_at);
+CREATE INDEX IF NOT EXISTS idx_pdf_render_jobs_status_next_attempt ON pdf_render_jobs(status, next_attempt_at);
+CREATE INDEX IF NOT EXISTS idx_generation_jobs_status_created_at ON generation_jobs(status, created_at);
+CREATE INDEX IF NOT EXISTS idx_generation_jobs_user_id ON generation_jobs(user_id);
+CREATE INDEX IF NOT EXISTS idx_generation_jobs_batch_id ON generation_jobs(batch_id);
 
 -- =====================================================
 -- TAMAMLANDI
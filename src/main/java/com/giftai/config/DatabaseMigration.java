@@ -227,6 +227,23 @@ public class DatabaseMigration {
                 log.info("✅ 'main_topic' column already exists in books table");
             }
             
+            // Check if document column exists in books table
+            String checkDocumentColumnSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.columns 
+                WHERE table_name = 'books' AND column_name = 'document'
+                """;
+            
+            Integer documentColumnExists = jdbcTemplate.queryForObject(checkDocumentColumnSql, Integer.class);
+            
+            if (documentColumnExists == null || documentColumnExists == 0) {
+                log.info("Adding missing 'document' column to books table...");
+                jdbcTemplate.execute("ALTER TABLE books ADD COLUMN IF NOT EXISTS document TEXT");
+                log.info("✅ Successfully added 'document' column to books table");
+            } else {
+                log.info("✅ 'document' column already exists in books table");
+            }
+            
             // Check if is_admin column exists in users table
             String checkIsAdminColumnSql = """
                 SELECT COUNT(*) 
@@ -271,8 +288,175 @@ public class DatabaseMigration {
                 log.info("✅ 'announcements' table already exists");
             }
             
-            log.info("Database migration completed successfully");
+            // Check if generation_cache table exists
+            String checkGenerationCacheTableSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.tables 
+                WHERE table_name = 'generation_cache'
+                """;
+            
+            Integer generationCacheTableExists = jdbcTemplate.queryForObject(checkGenerationCacheTableSql, Integer.class);
+            
+            if (generationCacheTableExists == null || generationCacheTableExists == 0) {
+                log.info("Creating 'generation_cache' table...");
+                jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS generation_cache (
+                        cache_key VARCHAR(64) PRIMARY KEY,
+                        content TEXT NOT NULL,
+                        hit_count BIGINT NOT NULL DEFAULT 0,
+                        created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_generation_cache_created_at ON generation_cache(created_at)");
+                log.info("✅ Successfully created 'generation_cache' table");
+            } else {
+                log.info("✅ 'generation_cache' table already exists");
+            }
+            
+            // Check if idempotency_keys table exists
+            String checkIdempotencyKeysTableSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.tables 
+                WHERE table_name = 'idempotency_keys'
+                """;
+            
+            Integer idempotencyKeysTableExists = jdbcTemplate.queryForObject(checkIdempotencyKeysTableSql, Integer.class);
+            
+            if (idempotencyKeysTableExists == null || idempotencyKeysTableExists == 0) {
+                log.info("Creating 'idempotency_keys' table...");
+                jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS idempotency_keys (
+                        key_hash VARCHAR(64) PRIMARY KEY,
+                        user_id BIGINT NOT NULL,
+                        request_hash VARCHAR(64) NOT NULL,
+                        job_id VARCHAR(36) NOT NULL,
+                        book_id BIGINT,
+                        created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        expires_at TIMESTAMP NOT NULL
+                    )
+                    """);
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_idempotency_keys_expires_at ON idempotency_keys(expires_at)");
+                log.info("✅ Successfully created 'idempotency_keys' table");
+            } else {
+                log.info("✅ 'idempotency_keys' table already exists");
+            }
+            
+            // Check if pdf_render_jobs table exists
+            String checkPdfRenderJobsTableSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.tables 
+                WHERE table_name = 'pdf_render_jobs'
+                """;
+            
+            Integer pdfRenderJobsTableExists = jdbcTemplate.queryForObject(checkPdfRenderJobsTableSql, Integer.class);
+            
+            if (pdfRenderJobsTableExists == null || pdfRenderJobsTableExists == 0) {
+                log.info("Creating 'pdf_render_jobs' table...");
+                jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS pdf_render_jobs (
+                        id BIGSERIAL PRIMARY KEY,
+                        book_id BIGINT NOT NULL UNIQUE,
+                        language VARCHAR(50),
+                        status VARCHAR(20) NOT NULL,
+                        attempts INTEGER NOT NULL DEFAULT 0,
+                        next_attempt_at TIMESTAMP NOT NULL,
+                        last_error TEXT,
+                        lease_owner VARCHAR(100),
+                        lease_expires_at TIMESTAMP,
+                        created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_pdf_render_jobs_status_next_attempt ON pdf_render_jobs(status, next_attempt_at)");
+                log.info("✅ Successfully created 'pdf_render_jobs' table");
+            } else {
+                log.info("✅ 'pdf_render_jobs' table already exists");
+            }
+            
+            // Check if lease_owner column exists in pdf_render_jobs table
+            String checkPdfRenderJobsLeaseColumnSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.columns 
+                WHERE table_name = 'pdf_render_jobs' AND column_name = 'lease_owner'
+                """;
+            
+            Integer pdfRenderJobsLeaseColumnExists = jdbcTemplate.queryForObject(checkPdfRenderJobsLeaseColumnSql, Integer.class);
+            
+            if (pdfRenderJobsLeaseColumnExists == null || pdfRenderJobsLeaseColumnExists == 0) {
+                log.info("Adding missing lease columns to pdf_render_jobs table...");
+                jdbcTemplate.execute("ALTER TABLE pdf_render_jobs ADD COLUMN IF NOT EXISTS lease_owner VARCHAR(100)");
+                jdbcTemplate.execute("ALTER TABLE pdf_render_jobs ADD COLUMN IF NOT EXISTS lease_expires_at TIMESTAMP");
+                log.info("✅ Successfully added lease columns to pdf_render_jobs table");
+            } else {
+                log.info("✅ Lease columns already exist in pdf_render_jobs table");
+            }
+            
+            // Check if generation_jobs table exists
+            String checkGenerationJobsTableSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.tables 
+                WHERE table_name = 'generation_jobs'
+                """;
             
+            Integer generationJobsTableExists = jdbcTemplate.queryForObject(checkGenerationJobsTableSql, Integer.class);
+            
+            if (generationJobsTableExists == null || generationJobsTableExists == 0) {
+                log.info("Creating 'generation_jobs' table...");
+                jdbcTemplate.execute("""
+                    CREATE TABLE IF NOT EXISTS generation_jobs (
+                        id VARCHAR(36) PRIMARY KEY,
+                        user_id BIGINT NOT NULL,
+                        lane VARCHAR(20) NOT NULL,
+                        request TEXT NOT NULL,
+                        status VARCHAR(20) NOT NULL,
+                        book_id BIGINT,
+                        error TEXT,
+                        retry_after_seconds BIGINT,
+                        idempotency_key_hash VARCHAR(64),
+                        cancel_reason VARCHAR(50),
+                        attempts INTEGER NOT NULL DEFAULT 0,
+                        deadline_at TIMESTAMP,
+                        lease_owner VARCHAR(100),
+                        lease_expires_at TIMESTAMP,
+                        batch_id VARCHAR(36),
+                        batch_index INTEGER,
+                        after_job_id VARCHAR(36),
+                        render_queued BOOLEAN NOT NULL DEFAULT FALSE,
+                        created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                        updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_generation_jobs_status_created_at ON generation_jobs(status, created_at)");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_generation_jobs_user_id ON generation_jobs(user_id)");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_generation_jobs_batch_id ON generation_jobs(batch_id)");
+                log.info("✅ Successfully created 'generation_jobs' table");
+            } else {
+                log.info("✅ 'generation_jobs' table already exists");
+            }
+            
+            // Check if batch_id column exists in generation_jobs table
+            String checkGenerationJobsBatchColumnSql = """
+                SELECT COUNT(*) 
+                FROM information_schema.columns 
+                WHERE table_name = 'generation_jobs' AND column_name = 'batch_id'
+                """;
+            
+            Integer generationJobsBatchColumnExists = jdbcTemplate.queryForObject(checkGenerationJobsBatchColumnSql, Integer.class);
+            
+            if (generationJobsBatchColumnExists == null || generationJobsBatchColumnExists == 0) {
+                log.info("Adding missing batch columns to generation_jobs table...");
+                jdbcTemplate.execute("ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS batch_id VARCHAR(36)");
+                jdbcTemplate.execute("ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS batch_index INTEGER");
+                jdbcTemplate.execute("ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS after_job_id VARCHAR(36)");
+                jdbcTemplate.execute("ALTER TABLE generation_jobs ADD COLUMN IF NOT EXISTS render_queued BOOLEAN DEFAULT false NOT NULL");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_generation_jobs_batch_id ON generation_jobs(batch_id)");
+                log.info("✅ Successfully added batch columns to generation_jobs table");
+            } else {
+                log.info("✅ Batch columns already exist in generation_jobs table");
+            }
+            
+            log.info("Database migration completed successfully");
+        
         } catch (Exception e) {
             log.error("❌ Error during database migration: {}", e.getMessage(), e);
             // Don't throw exception to allow application to start
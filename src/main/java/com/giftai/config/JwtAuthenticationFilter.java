@@ -28,8 +28,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     protected boolean shouldNotFilter(HttpServletRequest request) throws ServletException {
         String requestPath = request.getRequestURI();
         
-        // Only process API endpoints - skip everything else
-        if (!requestPath.startsWith("/api/")) {
+        // Only process API and actuator endpoints - skip everything else
+        if (!requestPath.startsWith("/api/") && !requestPath.startsWith("/actuator/")) {
             return true; // Skip filter
         }
         
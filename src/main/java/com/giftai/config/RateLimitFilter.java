@@ -0,0 +1,315 @@
+package com.giftai.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giftai.entity.UserEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Token-bucket rate limiting for expensive endpoints, per user id (or per client IP for
+ * anonymous requests). Runs right after {@link JwtAuthenticationFilter} so the user is known.
+ * Buckets are lock-free and kept in a fixed number of stripes, each an LRU map capped at its
+ * share of {@code max-buckets}: a flood of new (e.g. spoofed) keys pushes out the least recently
+ * used buckets instead of growing the map, and buckets idle longer than the eviction window are
+ * swept out once a minute.
+ * <p>
+ * Responses carry {@code RateLimit-Limit}, {@code RateLimit-Remaining} and
+ * {@code RateLimit-Reset} headers; rejected requests get {@code 429} with {@code Retry-After}.
+ * <p>
+ * A batch generation costs one generation token per book, so it is charged by the controller
+ * through {@link #consumeGeneration} once the body has been read, not by this filter.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RateLimitFilter extends OncePerRequestFilter {
+    
+    private static final Pattern PDF_PATH = Pattern.compile("^/api/book/[^/]+/pdf$");
+    private static final String BATCH_PATH = "/api/book/generate/batch";
+    private static final int STRIPES = 64;
+    
+    /**
+     * Endpoint classes with their own bucket per client.
+     */
+    enum EndpointClass {
+        GENERATION("generation"),
+        DOWNLOAD("download");
+        
+        private final String key;
+        
+        EndpointClass(String key) {
+            this.key = key;
+        }
+    }
+    
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private BucketStripe[] stripes;
+    private final AtomicLong nextSweepNanos = new AtomicLong(System.nanoTime());
+    
+    @Value("${rate-limit.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${rate-limit.generation.capacity:5}")
+    private int generationCapacity;
+    
+    @Value("${rate-limit.generation.refill-per-minute:2}")
+    private double generationRefillPerMinute;
+    
+    @Value("${rate-limit.download.capacity:30}")
+    private int downloadCapacity;
+    
+    @Value("${rate-limit.download.refill-per-minute:30}")
+    private double downloadRefillPerMinute;
+    
+    @Value("${rate-limit.idle-eviction-minutes:30}")
+    private long idleEvictionMinutes;
+    
+    @Value("${rate-limit.max-buckets:100000}")
+    private int maxBuckets;
+    
+    @PostConstruct
+    public void init() {
+        int perStripe = Math.max(1, maxBuckets / STRIPES);
+        stripes = new BucketStripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new BucketStripe(perStripe, meterRegistry.counter("rate-limit.evicted"));
+        }
+        Gauge.builder("rate-limit.buckets", this, RateLimitFilter::bucketCount).register(meterRegistry);
+    }
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || classify(request) == null;
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        EndpointClass endpoint = classify(request);
+        long retryAfterSeconds = consume(endpoint, 1, request, response);
+        if (retryAfterSeconds == 0) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), Map.of(
+                "error", "Too many requests",
+                "message", "Please wait " + retryAfterSeconds + " seconds before trying again",
+                "retryAfterSeconds", retryAfterSeconds));
+    }
+    
+    /**
+     * Takes {@code tokens} generation tokens from the caller's bucket and sets the rate-limit
+     * headers. A request for more tokens than the bucket holds is let through once the bucket is
+     * full and leaves it in debt, so later requests wait until the debt is refilled.
+     *
+     * @return 0 if allowed, otherwise the seconds to wait before trying again
+     */
+    public long consumeGeneration(int tokens, HttpServletRequest request, HttpServletResponse response) {
+        if (!enabled) {
+            return 0;
+        }
+        return consume(EndpointClass.GENERATION, tokens, request, response);
+    }
+    
+    private long consume(EndpointClass endpoint, int tokens, HttpServletRequest request, HttpServletResponse response) {
+        int capacity = endpoint == EndpointClass.GENERATION ? generationCapacity : downloadCapacity;
+        double refillPerMinute = endpoint == EndpointClass.GENERATION ? generationRefillPerMinute : downloadRefillPerMinute;
+        double tokensPerNano = refillPerMinute / TimeUnit.MINUTES.toNanos(1);
+        int required = Math.min(tokens, capacity);
+        
+        String client = clientKey(request);
+        long now = System.nanoTime();
+        sweepIdleBuckets(now);
+        TokenBucket bucket = bucket(endpoint.key + ":" + client, capacity, now);
+        double remaining = bucket.tryConsume(tokens, required, capacity, tokensPerNano, now);
+        boolean allowed = !Double.isNaN(remaining);
+        double tokensLeft = allowed ? remaining : bucket.tokens(capacity, tokensPerNano, now);
+        
+        // Reset: seconds until the bucket is full again
+        long resetSeconds = (long) Math.ceil((capacity - tokensLeft) / tokensPerNano / TimeUnit.SECONDS.toNanos(1));
+        response.setHeader("RateLimit-Limit", String.valueOf(capacity));
+        response.setHeader("RateLimit-Remaining", String.valueOf(Math.max(0, (long) Math.floor(tokensLeft))));
+        response.setHeader("RateLimit-Reset", String.valueOf(resetSeconds));
+        
+        if (allowed) {
+            return 0;
+        }
+        meterRegistry.counter("rate-limit.rejected", "endpoint", endpoint.key).increment();
+        log.debug("Rate limit exceeded for {} on {} {}", client, request.getMethod(), request.getRequestURI());
+        return Math.max(1, (long) Math.ceil((required - tokensLeft) / tokensPerNano / TimeUnit.SECONDS.toNanos(1)));
+    }
+    
+    private EndpointClass classify(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        String method = request.getMethod();
+        if ("POST".equals(method) && path.startsWith("/api/book/generate") && !path.equals(BATCH_PATH)) {
+            return EndpointClass.GENERATION;
+        }
+        if ("GET".equals(method) && PDF_PATH.matcher(path).matches()) {
+            return EndpointClass.DOWNLOAD;
+        }
+        return null;
+    }
+    
+    private String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserEntity user) {
+            return "user:" + user.getId();
+        }
+        // Behind a reverse proxy, enable server.forward-headers-strategy so this is the real client
+        return "ip:" + request.getRemoteAddr();
+    }
+    
+    private TokenBucket bucket(String key, int capacity, long now) {
+        BucketStripe stripe = stripes[Math.floorMod(key.hashCode(), STRIPES)];
+        stripe.lock.lock();
+        try {
+            return stripe.buckets.computeIfAbsent(key, k -> new TokenBucket(capacity, now));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+    
+    /**
+     * Drops buckets that have not been touched for the eviction window. Runs at most once a
+     * minute, piggybacking on incoming requests; each stripe is in least recently used order, so
+     * the sweep stops at its first bucket still in use.
+     */
+    private void sweepIdleBuckets(long now) {
+        long next = nextSweepNanos.get();
+        if (now - next < 0 || !nextSweepNanos.compareAndSet(next, now + TimeUnit.MINUTES.toNanos(1))) {
+            return;
+        }
+        long idleCutoff = now - TimeUnit.MINUTES.toNanos(idleEvictionMinutes);
+        int evicted = 0;
+        for (BucketStripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                Iterator<TokenBucket> eldestFirst = stripe.buckets.values().iterator();
+                while (eldestFirst.hasNext() && eldestFirst.next().lastUpdateNanos() - idleCutoff < 0) {
+                    eldestFirst.remove();
+                    evicted++;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} idle rate-limit buckets ({} remaining)", evicted, bucketCount());
+        }
+    }
+    
+    private double bucketCount() {
+        return Arrays.stream(stripes).mapToInt(BucketStripe::size).sum();
+    }
+    
+    /**
+     * One stripe of the bucket map: an access-ordered map that drops its least recently used
+     * bucket once it holds {@code cap} of them. Guarded by its own lock, so clients in different
+     * stripes never wait for each other.
+     */
+    private static class BucketStripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, TokenBucket> buckets;
+        
+        // evicted counts the buckets pushed out by the cap before they went idle
+        BucketStripe(int cap, Counter evicted) {
+            buckets = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                    if (size() <= cap) {
+                        return false;
+                    }
+                    evicted.increment();
+                    return true;
+                }
+            };
+        }
+        
+        int size() {
+            lock.lock();
+            try {
+                return buckets.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Lock-free token bucket: the token count and last refill time are swapped atomically.
+     */
+    private static class TokenBucket {
+        private record State(double tokens, long updatedNanos) {
+        }
+        
+        private final AtomicReference<State> state;
+        
+        TokenBucket(int capacity, long now) {
+            state = new AtomicReference<>(new State(capacity, now));
+        }
+        
+        /**
+         * Takes {@code count} tokens if at least {@code required} are available; the count may
+         * exceed what is available, leaving the bucket negative.
+         *
+         * @return tokens left after consuming, or NaN if too few were available
+         */
+        double tryConsume(int count, int required, int capacity, double tokensPerNano, long now) {
+            while (true) {
+                State current = state.get();
+                double tokens = refilled(current, capacity, tokensPerNano, now);
+                if (tokens < required) {
+                    return Double.NaN;
+                }
+                if (state.compareAndSet(current, new State(tokens - count, Math.max(now, current.updatedNanos)))) {
+                    return tokens - count;
+                }
+            }
+        }
+        
+        double tokens(int capacity, double tokensPerNano, long now) {
+            return refilled(state.get(), capacity, tokensPerNano, now);
+        }
+        
+        long lastUpdateNanos() {
+            return state.get().updatedNanos;
+        }
+        
+        private static double refilled(State current, int capacity, double tokensPerNano, long now) {
+            long elapsed = Math.max(0, now - current.updatedNanos);
+            return Math.min(capacity, current.tokens + elapsed * tokensPerNano);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.giftai.config;
 
+import com.giftai.entity.UserEntity;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -23,6 +25,7 @@ import java.util.List;
 public class SecurityConfig {
     
     private final JwtAuthenticationFilter jwtAuthenticationFilter;
+    private final RateLimitFilter rateLimitFilter;
     
     @Bean
     public PasswordEncoder passwordEncoder() {
@@ -41,13 +44,17 @@ public class SecurityConfig {
                 .requestMatchers("/api/book/discover").permitAll()
                 // Note: /api/book/{id} is permitAll but access control is handled in controller
                 // JWT filter will still run to set authentication if token is present
-                .requestMatchers("/api/book/generate", "/api/book/history", "/api/book/{id}/visibility").authenticated()
+                .requestMatchers("/api/book/generate", "/api/book/generate/stream", "/api/book/generate/batch", "/api/book/jobs/**", "/api/book/batches/**", "/api/book/queue", "/api/book/history", "/api/book/{id}/visibility").authenticated()
                 .requestMatchers("/api/user/**").authenticated()
                 .requestMatchers("/api/admin/**").authenticated() // Admin endpoints require authentication (admin check in controller)
+                .requestMatchers("/actuator/metrics/**").access((authentication, context) -> new AuthorizationDecision(
+                        authentication.get().getPrincipal() instanceof UserEntity user && Boolean.TRUE.equals(user.getIsAdmin())))
                 .requestMatchers("/api/book/**").permitAll() // Allow all book endpoints, access control in controller
                 .anyRequest().permitAll()
             )
-            .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class);
+            .addFilterBefore(jwtAuthenticationFilter, UsernamePasswordAuthenticationFilter.class)
+            // Rate limits are keyed by user, so they run once the JWT has been resolved
+            .addFilterAfter(rateLimitFilter, JwtAuthenticationFilter.class);
         
         return http.build();
     }
@@ -61,7 +68,7 @@ public class SecurityConfig {
         configuration.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"));
         configuration.setAllowedHeaders(List.of("*"));
         configuration.setAllowCredentials(false); // Set to false when using wildcard origins
-        configuration.setExposedHeaders(List.of("Authorization"));
+        configuration.setExposedHeaders(List.of("Authorization", "Retry-After", "RateLimit-Limit", "RateLimit-Remaining", "RateLimit-Reset"));
         // Set max age for preflight requests (1 hour)
         configuration.setMaxAge(3600L);
         
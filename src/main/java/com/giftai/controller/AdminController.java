@@ -8,8 +8,15 @@ import com.giftai.model.BookResponse;
 import com.giftai.model.BookUpdateRequest;
 import com.giftai.model.UserProfileResponse;
 import com.giftai.model.UserUpdateRequest;
+import com.giftai.provider.AdaptiveConcurrencyLimiter;
+import com.giftai.provider.OpenAiCircuitBreaker;
+import com.giftai.provider.OpenAiClient;
 import com.giftai.service.AdminService;
 import com.giftai.service.AnnouncementService;
+import com.giftai.service.GenerationCacheService;
+import com.giftai.service.PdfGenerationService;
+import com.giftai.service.PdfRenderBenchmark;
+import com.giftai.service.PdfRenderJobService;
 import jakarta.validation.Valid;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -20,6 +27,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +41,13 @@ public class AdminController {
     
     private final AdminService adminService;
     private final AnnouncementService announcementService;
+    private final OpenAiClient openAiClient;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final OpenAiCircuitBreaker circuitBreaker;
+    private final GenerationCacheService generationCacheService;
+    private final PdfGenerationService pdfGenerationService;
+    private final PdfRenderBenchmark pdfRenderBenchmark;
+    private final PdfRenderJobService pdfRenderJobService;
     
     @GetMapping("/users")
     @Operation(summary = "Get all users", description = "Retrieves all users. Requires admin authentication.")
@@ -296,5 +311,181 @@ public class AdminController {
                     .body(Map.of("error", e.getMessage()));
         }
     }
+    
+    @GetMapping("/llm-client")
+    @Operation(summary = "Get LLM client pool stats", description = "Retrieves connection pool and dispatcher utilisation of the shared OpenAI client. Requires admin authentication.")
+    public ResponseEntity<?> getLlmClientStats(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        Map<String, Object> stats = new LinkedHashMap<>(openAiClient.getPoolStats());
+        stats.put("concurrencyLimiter", concurrencyLimiter.getStats());
+        return ResponseEntity.ok(stats);
+    }
+    
+    @GetMapping("/pdf-render")
+    @Operation(summary = "Get PDF render pool stats", description = "Retrieves thread, active render and queue depth figures of the PDF render pool. Requires admin authentication.")
+    public ResponseEntity<?> getPdfRenderStats(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        return ResponseEntity.ok(pdfGenerationService.getStats());
+    }
+    
+    @GetMapping("/pdf-jobs")
+    @Operation(summary = "Get PDF render jobs", description = "Retrieves PDF render job counts per state and the most recent dead (given up) jobs with their last error. Requires admin authentication.")
+    public ResponseEntity<?> getPdfRenderJobs(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        return ResponseEntity.ok(pdfRenderJobService.getStats());
+    }
+    
+    @PostMapping("/pdf-jobs/{jobId}/retry")
+    @Operation(summary = "Retry a dead PDF render job", description = "Queues a dead PDF render job again with fresh attempts. Requires admin authentication.")
+    public ResponseEntity<?> retryPdfRenderJob(@PathVariable Long jobId, @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        if (!pdfRenderJobService.retryDead(jobId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "No dead PDF render job with this id"));
+        }
+        return ResponseEntity.ok(Map.of("message", "PDF render job queued again"));
+    }
+    
+    @PostMapping("/pdf-render/benchmark")
+    @Operation(summary = "Benchmark PDF render engines", description = "Renders a book repeatedly with every PDF engine (html, layout) and reports renders per second, time and heap allocated per render. Requires admin authentication.")
+    public ResponseEntity<?> benchmarkPdfRender(@RequestParam Long bookId,
+                                                @RequestParam(defaultValue = "10") int iterations,
+                                                @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        try {
+            return ResponseEntity.ok(pdfRenderBenchmark.run(bookId, iterations));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error running PDF render benchmark: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to run PDF render benchmark"));
+        }
+    }
+    
+    @GetMapping("/circuit-breaker")
+    @Operation(summary = "Get OpenAI circuit breaker state", description = "Retrieves the state (CLOSED, OPEN, HALF_OPEN) and recent failure rate of the OpenAI circuit breaker. Requires admin authentication.")
+    public ResponseEntity<?> getCircuitBreaker(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        return ResponseEntity.ok(circuitBreaker.getStats());
+    }
+    
+    @PostMapping("/circuit-breaker/reset")
+    @Operation(summary = "Reset OpenAI circuit breaker", description = "Closes the OpenAI circuit breaker and clears its failure window, e.g. after the API has recovered. Requires admin authentication.")
+    public ResponseEntity<?> resetCircuitBreaker(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        log.info("Admin {} reset the OpenAI circuit breaker", user.getId());
+        circuitBreaker.reset();
+        return ResponseEntity.ok(circuitBreaker.getStats());
+    }
+    
+    @GetMapping("/generation-cache")
+    @Operation(summary = "Get generation cache stats", description = "Retrieves size and hit/miss counts of the story generation cache. Requires admin authentication.")
+    public ResponseEntity<?> getGenerationCacheStats(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        try {
+            return ResponseEntity.ok(generationCacheService.getStats());
+        } catch (Exception e) {
+            log.error("Error retrieving generation cache stats: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Failed to retrieve generation cache stats"));
+        }
+    }
+    
+    @DeleteMapping("/generation-cache")
+    @Operation(summary = "Purge generation cache", description = "Removes cached stories (all, or only expired ones). Requires admin authentication.")
+    public ResponseEntity<?> purgeGenerationCache(@RequestParam(defaultValue = "false") boolean expiredOnly,
+                                                  @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        
+        if (user.getIsAdmin() == null || !user.getIsAdmin()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Admin access required"));
+        }
+        
+        try {
+            int removed = generationCacheService.purge(expiredOnly);
+            return ResponseEntity.ok(Map.of("message", "Generation cache purged", "removed", removed));
+        } catch (Exception e) {
+            log.error("Error purging generation cache: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
-
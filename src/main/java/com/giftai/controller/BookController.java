@@ -1,27 +1,51 @@
 package com.giftai.controller;
 
+import com.giftai.config.RateLimitFilter;
 import com.giftai.entity.UserEntity;
+import com.giftai.model.BatchBookRequest;
+import com.giftai.model.BatchJobResponse;
+import com.giftai.model.BookChapterResponse;
+import com.giftai.model.BookChaptersResponse;
 import com.giftai.model.BookRequest;
 import com.giftai.model.BookResponse;
+import com.giftai.model.GenerationJobResponse;
+import com.giftai.provider.AdaptiveConcurrencyLimiter;
+import com.giftai.provider.CancellationToken;
+import com.giftai.provider.CircuitBreakerOpenException;
+import com.giftai.provider.ConcurrencyLimitExceededException;
+import com.giftai.provider.GenerationCancelledException;
+import com.giftai.service.BatchGenerationService;
 import com.giftai.service.BookService;
+import com.giftai.service.GenerationJobService;
+import com.giftai.service.GenerationScheduler;
+import com.giftai.service.IdempotencyService;
+import com.giftai.service.PdfDeliveryService;
+import com.giftai.service.PdfRenderJobService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/book")
@@ -32,23 +56,271 @@ import java.util.Map;
 public class BookController {
     
     private final BookService bookService;
+    private final GenerationJobService generationJobService;
+    private final BatchGenerationService batchGenerationService;
+    private final GenerationScheduler generationScheduler;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final PdfDeliveryService pdfDeliveryService;
+    private final PdfRenderJobService pdfRenderJobService;
+    private final RateLimitFilter rateLimitFilter;
+    
+    @Value("${generation.stream.timeout-seconds:1800}")
+    private long streamTimeoutSeconds;
+    
+    @Value("${book.reading.cache-max-age-seconds:300}")
+    private long readingCacheMaxAgeSeconds;
     
     @PostMapping("/generate")
-    @Operation(summary = "Generate a new personalized book", description = "Generates a personalized e-book based on recipient information")
-    public ResponseEntity<?> generateBook(@Valid @RequestBody BookRequest request, @AuthenticationPrincipal UserEntity user) {
+    @Operation(summary = "Generate a new personalized book", description = "Queues generation of a personalized e-book and returns a job to poll")
+    public ResponseEntity<?> generateBook(@Valid @RequestBody BookRequest request,
+                                          @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                          @AuthenticationPrincipal UserEntity user) {
         if (user == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .body(Map.of("error", "Authentication required", "message", "Please login to create books"));
         }
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > IdempotencyService.MAX_KEY_LENGTH)) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Invalid Idempotency-Key", "message", "Idempotency-Key must be 1-" + IdempotencyService.MAX_KEY_LENGTH + " characters"));
+        }
         try {
-            BookResponse response = bookService.generateBook(request, user.getId());
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            // A retry gets its original job or book back; admission control only applies to new jobs
+            GenerationJobResponse job = generationJobService.findReplay(request, user.getId(), idempotencyKey);
+            long backlog = job == null ? generationJobService.queuedJobs() : 0;
+            if (job == null && concurrencyLimiter.isSaturated(backlog)) {
+                long retryAfter = concurrencyLimiter.retryAfterSeconds(backlog);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                        .body(Map.of("error", "The AI service is busy", "message", "Please try again in " + retryAfter + " seconds",
+                                "retryAfterSeconds", retryAfter));
+            }
+            if (job == null) {
+                job = generationJobService.submit(request, user.getId(), idempotencyKey, generationScheduler.laneFor(user));
+            }
+            boolean replayed = Boolean.TRUE.equals(job.getReplayed());
+            boolean completed = GenerationJobService.Status.COMPLETED.name().equals(job.getStatus());
+            return ResponseEntity.status(replayed && completed ? HttpStatus.OK : HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/api/book/jobs/" + job.getJobId())
+                    .header("Idempotent-Replayed", String.valueOf(replayed))
+                    .body(job);
+        } catch (IdempotencyService.KeyReusedException e) {
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .body(Map.of("error", "Idempotency-Key reused", "message", e.getMessage()));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Too many books are being created", "message", "Please try again in a moment"));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", e.getMessage(), "message", "An error occurred while creating the book"));
         }
     }
     
+    @PostMapping("/generate/batch")
+    @Operation(summary = "Generate a batch of books", description = "Queues generation of many personalized e-books (e.g. a whole class) as one job and returns a batch to poll")
+    public ResponseEntity<?> generateBatch(@Valid @RequestBody BatchBookRequest request, @AuthenticationPrincipal UserEntity user,
+                                           HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required", "message", "Please login to create books"));
+        }
+        if (request.getBooks().size() > batchGenerationService.getMaxItems()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Batch too large", "message", "A batch can contain at most " + batchGenerationService.getMaxItems() + " books"));
+        }
+        // Admission first, so a batch turned away with 503 is not charged for
+        long backlog = generationJobService.queuedJobs();
+        if (concurrencyLimiter.isSaturated(backlog)) {
+            long retryAfter = concurrencyLimiter.retryAfterSeconds(backlog);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                    .body(Map.of("error", "The AI service is busy", "message", "Please try again in " + retryAfter + " seconds",
+                            "retryAfterSeconds", retryAfter));
+        }
+        try {
+            batchGenerationService.checkCapacity(request.getBooks().size());
+        } catch (TaskRejectedException e) {
+            return batchQueueFull();
+        }
+        // One generation token per book, like the same books sent one by one
+        long rateLimitRetryAfter = rateLimitFilter.consumeGeneration(request.getBooks().size(), httpRequest, httpResponse);
+        if (rateLimitRetryAfter > 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rateLimitRetryAfter))
+                    .body(Map.of("error", "Too many requests", "message", "Please wait " + rateLimitRetryAfter + " seconds before trying again",
+                            "retryAfterSeconds", rateLimitRetryAfter));
+        }
+        try {
+            BatchJobResponse batch = batchGenerationService.submit(request.getBooks(), user.getId(),
+                    generationScheduler.laneFor(user, GenerationScheduler.Lane.BATCH));
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/api/book/batches/" + batch.getBatchId())
+                    .body(batch);
+        } catch (TaskRejectedException e) {
+            return batchQueueFull();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage(), "message", "An error occurred while creating the books"));
+        }
+    }
+    
+    private static ResponseEntity<?> batchQueueFull() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(Map.of("error", "Too many books are being created", "message", "Please try again in a moment"));
+    }
+    
+    @GetMapping("/batches/{batchId}")
+    @Operation(summary = "Get batch status", description = "Returns the progress of a batch generation job with the status of every book")
+    public ResponseEntity<?> getBatch(@PathVariable String batchId, @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        BatchJobResponse batch = batchGenerationService.getBatch(batchId, user.getId());
+        if (batch == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Batch not found"));
+        }
+        return ResponseEntity.ok(batch);
+    }
+    
+    @DeleteMapping("/batches/{batchId}")
+    @Operation(summary = "Cancel batch", description = "Cancels a batch generation job; running books have their AI call aborted, queued books are not created, finished books are kept")
+    public ResponseEntity<?> cancelBatch(@PathVariable String batchId, @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        BatchJobResponse batch = batchGenerationService.cancel(batchId, user.getId());
+        if (batch == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Batch not found"));
+        }
+        if (GenerationJobService.Status.COMPLETED.name().equals(batch.getStatus())
+                || GenerationJobService.Status.FAILED.name().equals(batch.getStatus())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(batch);
+        }
+        return ResponseEntity.accepted().body(batch);
+    }
+    
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Generate a book with streamed output", description = "Generates a personalized e-book and streams the story to the client via Server-Sent Events (chunk, complete and error events). Closing the connection cancels the generation.")
+    public SseEmitter generateBookStream(@Valid @RequestBody BookRequest request, @AuthenticationPrincipal UserEntity user) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutSeconds * 1000);
+        if (user == null) {
+            sendEvent(emitter, "error", Map.of("error", "Authentication required", "message", "Please login to create books"));
+            emitter.complete();
+            return emitter;
+        }
+        long backlog = generationJobService.queuedJobs();
+        if (concurrencyLimiter.isSaturated(backlog)) {
+            sendBusyEvent(emitter, concurrencyLimiter.retryAfterSeconds(backlog));
+            emitter.complete();
+            return emitter;
+        }
+        
+        // Nobody reads the story once the client is gone: stop the AI call and skip the PDF
+        CancellationToken cancellation = generationJobService.newCancellation();
+        emitter.onError(error -> cancellation.cancel(CancellationToken.CLIENT_DISCONNECTED));
+        emitter.onTimeout(() -> cancellation.cancel(CancellationToken.DEADLINE_EXCEEDED));
+        
+        try {
+            generationJobService.submitStreaming(request, user.getId(), generationScheduler.laneFor(user), cancellation,
+                            chunk -> {
+                                if (!sendEvent(emitter, "chunk", Map.of("text", chunk))) {
+                                    cancellation.cancel(CancellationToken.CLIENT_DISCONNECTED);
+                                }
+                            })
+                    .whenComplete((book, error) -> {
+                        cancellation.finish();
+                        if (error != null && error.getCause() instanceof GenerationCancelledException cancelled) {
+                            log.info("Streaming generation for user {} cancelled: {}", user.getId(), cancelled.getReason());
+                            sendEvent(emitter, "error", Map.of("error", "Generation cancelled", "message", "The book could not be created in time"));
+                        } else if (error != null && error.getCause() instanceof ConcurrencyLimitExceededException busy) {
+                            log.warn("Streaming generation rejected for user {}: {}", user.getId(), busy.getMessage());
+                            sendBusyEvent(emitter, busy.getRetryAfterSeconds());
+                        } else if (error != null && error.getCause() instanceof CircuitBreakerOpenException open) {
+                            log.warn("Streaming generation rejected for user {}: {}", user.getId(), open.getMessage());
+                            sendBusyEvent(emitter, open.getRetryAfterSeconds());
+                        } else if (error != null) {
+                            log.error("Streaming generation failed for user {}: {}", user.getId(), error.getMessage(), error);
+                            sendEvent(emitter, "error", Map.of("error", "Generation failed", "message", "An error occurred while creating the book"));
+                        } else {
+                            sendEvent(emitter, "complete", book);
+                        }
+                        emitter.complete();
+                    });
+        } catch (TaskRejectedException e) {
+            cancellation.finish();
+            sendEvent(emitter, "error", Map.of("error", "Too many books are being created", "message", "Please try again in a moment"));
+            emitter.complete();
+        }
+        return emitter;
+    }
+    
+    private void sendBusyEvent(SseEmitter emitter, long retryAfterSeconds) {
+        sendEvent(emitter, "error", Map.of("error", "The AI service is busy",
+                "message", "Please try again in " + retryAfterSeconds + " seconds", "retryAfterSeconds", retryAfterSeconds));
+    }
+    
+    /**
+     * @return false if the client has gone away
+     */
+    private boolean sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not send '{}' event: {}", name, e.getMessage());
+            return false;
+        }
+    }
+    
+    @GetMapping("/jobs/{jobId}")
+    @Operation(summary = "Get generation job status", description = "Returns the status of a book generation job and the book once it is completed")
+    public ResponseEntity<?> getGenerationJob(@PathVariable String jobId, @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        GenerationJobResponse job = generationJobService.getJob(jobId, user.getId());
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(job);
+    }
+    
+    @DeleteMapping("/jobs/{jobId}")
+    @Operation(summary = "Cancel generation job", description = "Cancels a queued or running generation job; its AI call is aborted and no book or PDF is created")
+    public ResponseEntity<?> cancelGenerationJob(@PathVariable String jobId, @AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        GenerationJobResponse job = generationJobService.cancel(jobId, user.getId());
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Job not found"));
+        }
+        if (GenerationJobService.Status.COMPLETED.name().equals(job.getStatus())
+                || GenerationJobService.Status.FAILED.name().equals(job.getStatus())) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(job);
+        }
+        return ResponseEntity.accepted().body(job);
+    }
+    
+    @GetMapping("/queue")
+    @Operation(summary = "Get generation queue status", description = "Returns the caller's scheduler lane, how many of their generations are waiting and the queue position of the next one")
+    public ResponseEntity<?> getQueueStatus(@AuthenticationPrincipal UserEntity user) {
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Authentication required"));
+        }
+        return ResponseEntity.ok(generationJobService.getQueueStatus(user.getId(), generationScheduler.laneFor(user)));
+    }
+    
     @GetMapping("/history")
     @Operation(summary = "Get book history", description = "Retrieves all generated books for the authenticated user")
     public ResponseEntity<?> getBookHistory(@AuthenticationPrincipal UserEntity user) {
@@ -68,10 +340,12 @@ public class BookController {
     }
     
     @GetMapping("/{id}")
-    @Operation(summary = "Get book by ID", description = "Retrieves a specific book by its ID")
-    public ResponseEntity<BookResponse> getBookById(@PathVariable Long id, Authentication authentication) {
+    @Operation(summary = "Get book by ID", description = "Retrieves a specific book by its ID. With includeContent=false the text (content and document) is left out; read it chapter by chapter via /{id}/chapters instead.")
+    public ResponseEntity<BookResponse> getBookById(@PathVariable Long id,
+                                                    @RequestParam(defaultValue = "true") boolean includeContent,
+                                                    Authentication authentication) {
         // First get the book to check its properties
-        BookResponse book = bookService.getBookById(id);
+        BookResponse book = includeContent ? bookService.getBookById(id) : bookService.getBookSummaryById(id);
         
         // Get user ID from authentication - try multiple methods
         Long userId = null;
@@ -171,10 +445,60 @@ public class BookController {
         return ResponseEntity.ok(book);
     }
     
+    @GetMapping("/{id}/chapters")
+    @Operation(summary = "Get table of contents", description = "Returns the title, dedication and chapter list (ids, titles, sizes) of a book without the chapter text. Public books are readable by everyone, private books only by the owner.")
+    public ResponseEntity<?> getChapters(@PathVariable Long id, @AuthenticationPrincipal UserEntity user) {
+        BookChaptersResponse chapters;
+        try {
+            chapters = bookService.getChapters(id, user != null ? user.getId() : null);
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "This book is private"));
+        }
+        if (chapters == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Book not found"));
+        }
+        // Spring answers 304 itself when If-None-Match matches the ETag
+        return ResponseEntity.ok()
+                .eTag(chapters.getVersion())
+                .cacheControl(readingCacheControl(chapters.getIsPublic()))
+                .body(chapters);
+    }
+    
+    @GetMapping("/{id}/chapters/{chapterId}")
+    @Operation(summary = "Get one chapter", description = "Returns the text of one chapter with the ids of the previous and next chapters. Public books are readable by everyone, private books only by the owner.")
+    public ResponseEntity<?> getChapter(@PathVariable Long id, @PathVariable String chapterId,
+                                        @AuthenticationPrincipal UserEntity user) {
+        BookChapterResponse chapter;
+        try {
+            chapter = bookService.getChapter(id, chapterId, user != null ? user.getId() : null);
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "This book is private"));
+        }
+        if (chapter == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Chapter not found"));
+        }
+        return ResponseEntity.ok()
+                .eTag(chapter.getVersion() + "-" + chapter.getId())
+                .cacheControl(readingCacheControl(chapter.getIsPublic()))
+                .body(chapter);
+    }
+    
+    /**
+     * Public books may be kept by shared caches for a while; private ones only by the
+     * browser, and revalidated (cheaply, via the ETag) on every use.
+     */
+    private CacheControl readingCacheControl(Boolean isPublic) {
+        if (Boolean.TRUE.equals(isPublic)) {
+            return CacheControl.maxAge(readingCacheMaxAgeSeconds, TimeUnit.SECONDS).cachePublic();
+        }
+        return CacheControl.noCache().cachePrivate();
+    }
+    
     @GetMapping("/{id}/pdf")
-    @Operation(summary = "Download PDF", description = "Downloads the PDF file for a book")
-    public ResponseEntity<Resource> downloadPdf(@PathVariable Long id, Authentication authentication) {
-        BookResponse book = bookService.getBookById(id);
+    @Operation(summary = "Download PDF", description = "Downloads the PDF file for a book. Supports conditional requests (ETag / Last-Modified) and byte ranges for resuming and partial loading.")
+    public ResponseEntity<Void> downloadPdf(@PathVariable Long id, Authentication authentication,
+                                            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BookResponse book = bookService.getBookSummaryById(id);
         
         // Get user ID from authentication
         Long userId = null;
@@ -196,24 +520,22 @@ public class BookController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
         
-        // Increment download count
-        bookService.incrementDownloadCount(id);
-        
-        File file = new File(book.getPdfPath());
-        if (!file.exists()) {
+        // Let browsers keep the PDF but revalidate it (a cheap 304) before every use
+        CacheControl cacheControl = Boolean.TRUE.equals(book.getIsPublic())
+                ? CacheControl.noCache().cachePublic()
+                : CacheControl.noCache().cachePrivate();
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        try {
+            // Revalidations and resumed ranges are not new downloads
+            if (pdfDeliveryService.deliver(book.getPdfPath(), "book_" + id + ".pdf", request, response)) {
+                bookService.incrementDownloadCount(id);
+            }
+        } catch (FileNotFoundException e) {
+            log.warn("PDF of book {} is missing from storage: {}", id, e.getMessage());
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
-        
-        Resource resource = new FileSystemResource(file);
-        
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_PDF);
-        headers.setContentDispositionFormData("inline", file.getName());
-        headers.add("X-Content-Type-Options", "nosniff");
-        
-        return ResponseEntity.ok()
-                .headers(headers)
-                .body(resource);
+        // The response has been written
+        return null;
     }
     
     @PatchMapping("/{id}/visibility")
@@ -286,9 +608,9 @@ public class BookController {
     }
     
     @GetMapping("/{id}/status")
-    @Operation(summary = "Check PDF status", description = "Checks if PDF is ready for download")
+    @Operation(summary = "Check PDF status", description = "Checks if PDF is ready for download and reports the state of its render job")
     public ResponseEntity<Map<String, Object>> checkPdfStatus(@PathVariable Long id, Authentication authentication) {
-        BookResponse book = bookService.getBookById(id);
+        BookResponse book = bookService.getBookSummaryById(id);
         
         // Get user ID from authentication
         Long userId = null;
@@ -306,9 +628,12 @@ public class BookController {
             }
         }
         
+        // QUEUED, RUNNING, FAILED (being retried), DEAD (given up) or DONE; empty for books without a render job
+        String renderStatus = pdfRenderJobService.getStatus(id);
         return ResponseEntity.ok(Map.of(
             "pdfReady", book.getPdfReady(),
-            "pdfPath", book.getPdfPath() != null ? book.getPdfPath() : ""
+            "pdfPath", book.getPdfPath() != null ? book.getPdfPath() : "",
+            "renderStatus", renderStatus != null ? renderStatus : ""
         ));
     }
 }
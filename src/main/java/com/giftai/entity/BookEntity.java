@@ -52,6 +52,10 @@ public class BookEntity {
     @Column(nullable = false, columnDefinition = "TEXT")
     private String content;
     
+    // BookDocument as JSON, parsed from content
+    @Column(columnDefinition = "TEXT")
+    private String document;
+    
     @Column(length = 500)
     private String pdfPath;
     
@@ -0,0 +1,38 @@
+package com.giftai.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "generation_cache")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GenerationCacheEntity {
+    @Id
+    @Column(length = 64)
+    private String cacheKey; // SHA-256 of the normalized request
+    
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content; // AI output with recipient/giver replaced by placeholders
+    
+    @Column(nullable = false)
+    private Long hitCount;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt; // reset when the key is cached again
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (hitCount == null) {
+            hitCount = 0L;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.giftai.entity;
+
+import com.giftai.service.GenerationJobService;
+import com.giftai.service.GenerationScheduler;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A queued book generation (POST /api/book/generate, or one item of a batch). Any instance can
+ * claim it; while it runs it is leased to that instance, and queued again for another one if the
+ * lease runs out.
+ */
+@Entity
+@Table(name = "generation_jobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GenerationJobEntity {
+    
+    @Id
+    @Column(length = 36)
+    private String id;
+    
+    @Column(nullable = false)
+    private Long userId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private GenerationScheduler.Lane lane;
+    
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String request; // the BookRequest as JSON
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private GenerationJobService.Status status;
+    
+    private Long bookId; // set once COMPLETED
+    
+    @Column(columnDefinition = "TEXT")
+    private String error;
+    
+    private Long retryAfterSeconds;
+    
+    @Column(length = 64)
+    private String idempotencyKeyHash;
+    
+    @Column(length = 50)
+    private String cancelReason; // set when cancelled, or asked to be while running elsewhere
+    
+    @Column(nullable = false)
+    private Integer attempts;
+    
+    private LocalDateTime deadlineAt;
+    
+    @Column(length = 100)
+    private String leaseOwner; // cluster node working on the job (or still submitting it)
+    
+    private LocalDateTime leaseExpiresAt; // or, with no owner, when a deferred job may be claimed again
+    
+    @Column(length = 36)
+    private String batchId; // set on the items of a batch (POST /api/book/generate/batch)
+    
+    private Integer batchIndex; // position in the submitted batch
+    
+    @Column(length = 36)
+    private String afterJobId; // batch item whose story this one reuses; not claimed before that one is done
+    
+    @Column(nullable = false)
+    private Boolean renderQueued; // batch items: PDF handed to the renderer with the rest of the batch
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = createdAt;
+        if (attempts == null) {
+            attempts = 0;
+        }
+        if (renderQueued == null) {
+            renderQueued = false;
+        }
+    }
+    
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
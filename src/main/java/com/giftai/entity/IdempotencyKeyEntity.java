@@ -0,0 +1,38 @@
+package com.giftai.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "idempotency_keys")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyKeyEntity {
+    @Id
+    @Column(length = 64)
+    private String keyHash; // SHA-256 of user id + Idempotency-Key header
+    
+    @Column(nullable = false)
+    private Long userId;
+    
+    @Column(nullable = false, length = 64)
+    private String requestHash; // fingerprint of the request body the key was first used with
+    
+    @Column(nullable = false, length = 36)
+    private String jobId;
+    
+    private Long bookId; // set once the generation has completed
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,79 @@
+package com.giftai.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * The PDF render of one book. Written in the same transaction as the book, so a render that is
+ * lost to a crash is found again: a running job is leased to one instance, and picked up by
+ * another once the lease runs out.
+ */
+@Entity
+@Table(name = "pdf_render_jobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PdfRenderJobEntity {
+    
+    public enum Status {
+        QUEUED,   // waiting for its first attempt
+        RUNNING,  // an attempt is in progress on leaseOwner
+        DONE,
+        FAILED,   // the last attempt failed, retried at nextAttemptAt
+        DEAD      // gave up after max-attempts; only retried by an admin
+    }
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(nullable = false, unique = true)
+    private Long bookId;
+    
+    @Column(length = 50)
+    private String language;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;
+    
+    @Column(nullable = false)
+    private Integer attempts;
+    
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+    
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+    
+    @Column(length = 100)
+    private String leaseOwner; // cluster node running the job, only while RUNNING
+    
+    private LocalDateTime leaseExpiresAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = createdAt;
+        if (attempts == null) {
+            attempts = 0;
+        }
+    }
+    
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
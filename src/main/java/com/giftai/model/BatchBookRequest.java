@@ -0,0 +1,18 @@
+package com.giftai.model;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchBookRequest {
+    @NotEmpty(message = "At least one book is required")
+    @Valid
+    private List<BookRequest> books;
+}
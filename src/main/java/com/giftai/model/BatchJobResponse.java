@@ -0,0 +1,38 @@
+package com.giftai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchJobResponse {
+    private String batchId;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    private Integer total;
+    private Integer completed;
+    private Integer failed;
+    private Integer cancelled;
+    private Boolean pdfsReady; // true once the batch PDF render has finished
+    private List<Item> items;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private Integer index; // position in the submitted list
+        private String name;
+        private String status; // QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+        private Long bookId;
+        private String error;
+    }
+}
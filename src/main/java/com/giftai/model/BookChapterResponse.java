@@ -0,0 +1,28 @@
+package com.giftai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One chapter of a book for the chapter reading API.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChapterResponse {
+    private Long bookId;
+    private String id;
+    private int index;
+    private int totalChapters;
+    private String title;
+    private List<BookDocument.Block> blocks;
+    private String previousId;
+    private String nextId;
+    private Boolean isPublic;
+    private String version;
+}
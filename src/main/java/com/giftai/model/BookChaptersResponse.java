@@ -0,0 +1,36 @@
+package com.giftai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Table of contents of a book for the chapter reading API.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChaptersResponse {
+    private Long bookId;
+    private String title;
+    private String dedication;
+    private Boolean isPublic;
+    private String version; // changes whenever the book's text changes; used as ETag
+    private List<Chapter> chapters;
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Chapter {
+        private String id;
+        private int index;
+        private String title;
+        private int paragraphs;
+        private int words;
+    }
+}
@@ -0,0 +1,43 @@
+package com.giftai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The structure of a generated book, parsed once from the AI output and stored with the book.
+ * Renderers and the API read this instead of re-parsing the raw text.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookDocument {
+    private String title;
+    private String dedication;
+    private List<Chapter> chapters;
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Chapter {
+        private String id;
+        private String title; // null for text before the first chapter heading
+        private List<Block> blocks;
+    }
+    
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Block {
+        public enum Type { SECTION_TITLE, PARAGRAPH }
+        
+        private Type type;
+        private String text;
+    }
+}
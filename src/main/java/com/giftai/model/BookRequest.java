@@ -42,5 +42,9 @@ public class BookRequest {
     private List<CharacterInfo> characters;
     
     private Boolean isPublic;
+    
+    private String generationMode; // "single" or "parallel"; server default when empty
+    
+    private Boolean regenerate; // true asks for a new story instead of a cached one
 }
 
@@ -24,7 +24,10 @@ public class BookResponse {
     private String giver;
     private String appearance;
     private List<CharacterInfo> characters;
-    private String content;
+    private String content; // null in book lists
+    private BookDocument document; // null in book lists
+    private String preview; // start of the content, only when the content itself is left out
+    private Boolean previewTruncated; // true if the content is longer than the preview
     private String pdfPath;
     private Boolean pdfReady;
     private Boolean isPublic;
@@ -0,0 +1,26 @@
+package com.giftai.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class GenerationJobResponse {
+    private String jobId;
+    private String status; // QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    private String lane; // scheduler lane: PRIORITY, STANDARD or BATCH
+    private Integer queuePosition; // 1 = next to run; only while QUEUED
+    private Long bookId;
+    private BookResponse book;
+    private String error;
+    private Long retryAfterSeconds; // set when the job failed because the AI service was busy
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    private Boolean replayed; // true when returned for a repeated Idempotency-Key
+}
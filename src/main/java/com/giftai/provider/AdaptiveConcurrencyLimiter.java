@@ -0,0 +1,335 @@
+package com.giftai.provider;
+
+import com.theokanning.openai.OpenAiHttpException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * AIMD concurrency limit for calls to the AI backend. The limit grows by one after each
+ * successful call that used at least half of it, and is cut by the backoff ratio when the
+ * backend answers 429/503, times out, or a call takes much longer than the long-term average.
+ * Latency is tracked per call kind (a short outline call and a full story differ by an order of
+ * magnitude), so a call is only compared with earlier calls of its own kind.
+ * Calls over the limit wait in a bounded queue; when that is full they are rejected. A call
+ * whose generation is cancelled while it waits leaves the queue right away.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdaptiveConcurrencyLimiter {
+    
+    private static final double BASELINE_SMOOTHING = 0.05;
+    private static final double AVERAGE_SMOOTHING = 0.2;
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 30;
+    private static final long MAX_RETRY_AFTER_SECONDS = 600;
+    
+    public static final String KIND_STORY = "story";
+    public static final String KIND_OUTLINE = "outline";
+    public static final String KIND_CHAPTER = "chapter";
+    
+    private final MeterRegistry meterRegistry;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    // Latency of successful calls per call kind
+    private final Map<String, Latency> latencies = new HashMap<>();
+    // Short-term latency of all calls, i.e. how fast slots free up; used to estimate Retry-After
+    private double averageMs;
+    private Counter rejected;
+    private Counter overloads;
+    
+    @Value("${generation.limiter.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${generation.limiter.initial-limit:4}")
+    private int initialLimit;
+    
+    @Value("${generation.limiter.min-limit:1}")
+    private int minLimit;
+    
+    @Value("${generation.limiter.max-limit:32}")
+    private int maxLimit;
+    
+    @Value("${generation.limiter.backoff-ratio:0.75}")
+    private double backoffRatio;
+    
+    @Value("${generation.limiter.latency-tolerance:2.0}")
+    private double latencyTolerance;
+    
+    @Value("${generation.limiter.max-queue:20}")
+    private int maxQueue;
+    
+    @Value("${generation.limiter.max-wait-seconds:120}")
+    private long maxWaitSeconds;
+    
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        rejected = meterRegistry.counter("generation.limiter.rejected");
+        overloads = meterRegistry.counter("generation.limiter.overloads");
+        Gauge.builder("generation.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("generation.limiter.calls", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("state", "running").register(meterRegistry);
+        Gauge.builder("generation.limiter.calls", this, AdaptiveConcurrencyLimiter::getQueueDepth)
+                .tag("state", "queued").register(meterRegistry);
+        log.info("AI concurrency limiter {} (initial limit {}, range {}-{}, queue {})",
+                enabled ? "enabled" : "disabled", initialLimit, minLimit, maxLimit, maxQueue);
+    }
+    
+    /**
+     * Runs one upstream call within the concurrency limit, waiting for a slot if needed.
+     *
+     * @param kind what the call produces (e.g. {@link #KIND_STORY}); its latency is only compared
+     *             with calls of the same kind
+     * @param cancellation the generation the call belongs to; cancelling it ends the wait for a slot
+     * @throws ConcurrencyLimitExceededException if the queue is full or no slot freed up in time
+     * @throws GenerationCancelledException if the generation was cancelled before it got a slot
+     */
+    public <T> T execute(String kind, CancellationToken cancellation, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        acquire(cancellation);
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean overloaded = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } catch (RuntimeException e) {
+            overloaded = isOverload(e);
+            throw e;
+        } finally {
+            release(kind, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), success, overloaded);
+        }
+    }
+    
+    /**
+     * True when every slot is taken and the calls waiting for one, together with the
+     * {@code backlog} of generations queued ahead of them elsewhere (jobs not yet on a worker),
+     * fill the wait queue. Used for admission control before a job is queued: with only a few
+     * workers per instance, queued jobs rarely reach this limiter, so its own queue alone would
+     * hardly ever be full.
+     */
+    public boolean isSaturated(long backlog) {
+        if (!enabled) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return inFlight >= currentLimit() && waiting + backlog >= maxQueue;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Rough time until a slot frees up for a new caller, based on recent call latency.
+     */
+    public long retryAfterSeconds() {
+        return retryAfterSeconds(0);
+    }
+    
+    /**
+     * Same as {@link #retryAfterSeconds()}, for a caller behind {@code backlog} queued generations.
+     */
+    public long retryAfterSeconds(long backlog) {
+        lock.lock();
+        try {
+            if (averageMs <= 0) {
+                return DEFAULT_RETRY_AFTER_SECONDS;
+            }
+            double rounds = Math.ceil((waiting + backlog + 1) / (double) currentLimit());
+            long seconds = (long) Math.ceil(rounds * averageMs / 1000);
+            return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", enabled);
+            stats.put("limit", currentLimit());
+            stats.put("minLimit", minLimit);
+            stats.put("maxLimit", maxLimit);
+            stats.put("inFlight", inFlight);
+            stats.put("queued", waiting);
+            stats.put("maxQueue", maxQueue);
+            stats.put("recentLatencyMs", Math.round(averageMs));
+            Map<String, Object> byKind = new TreeMap<>();
+            latencies.forEach((kind, latency) -> byKind.put(kind, Map.of(
+                    "baselineLatencyMs", Math.round(latency.baselineMs),
+                    "recentLatencyMs", Math.round(latency.averageMs))));
+            stats.put("latencyByKind", byKind);
+            stats.put("rejected", (long) rejected.count());
+            stats.put("overloads", (long) overloads.count());
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void acquire(CancellationToken cancellation) {
+        cancellation.throwIfCancelled();
+        lock.lock();
+        try {
+            if (inFlight < currentLimit()) {
+                inFlight++;
+                return;
+            }
+            if (waiting >= maxQueue) {
+                rejected.increment();
+                throw new ConcurrencyLimitExceededException("AI backend is at its concurrency limit", retryAfterSeconds());
+            }
+            
+            waiting++;
+            // Wakes the wait up on cancel, so a cancelled call does not hold its queue place
+            try (CancellationToken.Registration wakeUp = cancellation.onCancel(this::wakeUpWaiters)) {
+                long remainingNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+                while (inFlight >= currentLimit()) {
+                    cancellation.throwIfCancelled();
+                    if (remainingNanos <= 0) {
+                        rejected.increment();
+                        throw new ConcurrencyLimitExceededException("Timed out waiting for the AI backend", retryAfterSeconds());
+                    }
+                    remainingNanos = slotFreed.awaitNanos(remainingNanos);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the AI backend", e);
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void wakeUpWaiters() {
+        lock.lock();
+        try {
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void release(String kind, long latencyMs, boolean success, boolean overloaded) {
+        lock.lock();
+        try {
+            int usedSlots = inFlight;
+            inFlight--;
+            
+            if (overloaded) {
+                overloads.increment();
+                decrease("backend overloaded");
+            } else if (success) {
+                averageMs = smooth(averageMs, latencyMs, AVERAGE_SMOOTHING);
+                Latency latency = latencies.computeIfAbsent(kind, k -> new Latency());
+                if (latency.baselineMs > 0 && latencyMs > latency.baselineMs * latencyTolerance) {
+                    decrease(kind + " latency " + latencyMs + " ms vs baseline " + Math.round(latency.baselineMs) + " ms");
+                } else if (usedSlots * 2 >= currentLimit() && limit < maxLimit) {
+                    limit = Math.min(maxLimit, limit + 1);
+                    log.debug("AI concurrency limit raised to {}", currentLimit());
+                }
+                latency.averageMs = smooth(latency.averageMs, latencyMs, AVERAGE_SMOOTHING);
+                latency.baselineMs = smooth(latency.baselineMs, latencyMs, BASELINE_SMOOTHING);
+            }
+            
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void decrease(String reason) {
+        int before = currentLimit();
+        limit = Math.max(minLimit, limit * backoffRatio);
+        if (currentLimit() < before) {
+            log.warn("AI concurrency limit lowered from {} to {} ({})", before, currentLimit(), reason);
+        }
+    }
+    
+    private static double smooth(double current, long sampleMs, double weight) {
+        return current <= 0 ? sampleMs : current + weight * (sampleMs - current);
+    }
+    
+    private int currentLimit() {
+        return Math.max(minLimit, (int) limit);
+    }
+    
+    private boolean isOverload(Throwable error) {
+        if (error instanceof GenerationCancelledException) {
+            // Aborted by us; the closed socket is not a backend timeout
+            return false;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OpenAiHttpException http && (http.statusCode == 429 || http.statusCode == 503)) {
+                return true;
+            }
+            // Includes SocketTimeoutException
+            if (cause instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private double getLimit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private double getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private double getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static final class Latency {
+        // Long-term latency; a sample far above it means the backend is slowing down
+        double baselineMs;
+        // Short-term latency
+        double averageMs;
+    }
+}
@@ -0,0 +1,178 @@
+package com.giftai.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Carries the cancellation of one generation from the controller down to the upstream AI call.
+ * Cancelling runs the registered hooks, e.g. {@link OpenAiClient} cancels the in-flight HTTP call
+ * bound to the token with {@link #bind()}.
+ */
+public class CancellationToken {
+    
+    public static final String CLIENT_DISCONNECTED = "client-disconnected";
+    public static final String DEADLINE_EXCEEDED = "deadline-exceeded";
+    public static final String CANCELLED_BY_USER = "cancelled-by-user";
+    public static final String SHUTTING_DOWN = "shutting-down";
+    
+    /** A token that is never cancelled. */
+    public static final CancellationToken NONE = new CancellationToken();
+    
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Runnable> hooks = new ArrayList<>();
+    private volatile String reason;
+    private volatile long deadlineNanos;
+    private ScheduledFuture<?> deadlineTimer;
+    
+    /**
+     * Registration of a hook; closing it removes the hook again.
+     */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+    
+    /**
+     * The token bound to the current thread, or {@link #NONE}.
+     */
+    public static CancellationToken current() {
+        CancellationToken token = CURRENT.get();
+        return token != null ? token : NONE;
+    }
+    
+    /**
+     * Cancels the token after the given delay, using {@code timer}.
+     */
+    public void expireAfter(ScheduledExecutorService timer, long delay, TimeUnit unit) {
+        if (this == NONE) {
+            return;
+        }
+        lock.lock();
+        try {
+            deadlineNanos = System.nanoTime() + unit.toNanos(delay);
+            deadlineTimer = timer.schedule(() -> cancel(DEADLINE_EXCEEDED), delay, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Marks the generation as done: stops the deadline timer and drops all hooks.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+            }
+            hooks.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Cancels the token and runs its hooks.
+     *
+     * @return false if it was already cancelled (or is {@link #NONE})
+     */
+    public boolean cancel(String reason) {
+        if (this == NONE) {
+            return false;
+        }
+        List<Runnable> toRun;
+        lock.lock();
+        try {
+            if (this.reason != null) {
+                return false;
+            }
+            this.reason = reason;
+            toRun = new ArrayList<>(hooks);
+            hooks.clear();
+            if (deadlineTimer != null) {
+                deadlineTimer.cancel(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+        toRun.forEach(Runnable::run);
+        return true;
+    }
+    
+    public boolean isCancelled() {
+        return reason != null;
+    }
+    
+    public String getReason() {
+        return reason;
+    }
+    
+    /**
+     * Seconds left until the deadline, or -1 when there is none.
+     */
+    public long remainingSeconds() {
+        long deadline = deadlineNanos;
+        return deadline == 0 ? -1 : Math.max(0, TimeUnit.NANOSECONDS.toSeconds(deadline - System.nanoTime()));
+    }
+    
+    /**
+     * @throws GenerationCancelledException if the token has been cancelled
+     */
+    public void throwIfCancelled() {
+        String current = reason;
+        if (current != null) {
+            throw new GenerationCancelledException(current, null);
+        }
+    }
+    
+    /**
+     * Runs {@code hook} when the token is cancelled, or right away if it already is.
+     */
+    public Registration onCancel(Runnable hook) {
+        if (this == NONE) {
+            return () -> { };
+        }
+        lock.lock();
+        try {
+            if (reason == null) {
+                hooks.add(hook);
+                return () -> removeHook(hook);
+            }
+        } finally {
+            lock.unlock();
+        }
+        hook.run();
+        return () -> { };
+    }
+    
+    /**
+     * Makes this the {@link #current()} token of the calling thread until the returned
+     * registration is closed.
+     */
+    public Registration bind() {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+    
+    private void removeHook(Runnable hook) {
+        lock.lock();
+        try {
+            hooks.remove(hook);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.giftai.provider;
+
+/**
+ * Thrown instead of calling the AI backend while its circuit breaker is open.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public CircuitBreakerOpenException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
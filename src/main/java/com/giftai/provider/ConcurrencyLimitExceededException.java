@@ -0,0 +1,19 @@
+package com.giftai.provider;
+
+/**
+ * Thrown when the AI backend is at its concurrency limit and the wait queue is full, or a
+ * queued call waited too long for a slot.
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public ConcurrencyLimitExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,19 @@
+package com.giftai.provider;
+
+/**
+ * Thrown when a generation is abandoned because its {@link CancellationToken} was cancelled
+ * (client went away, deadline passed or the user cancelled the job).
+ */
+public class GenerationCancelledException extends RuntimeException {
+    
+    private final String reason;
+    
+    public GenerationCancelledException(String reason, Throwable cause) {
+        super("Generation cancelled: " + reason, cause);
+        this.reason = reason;
+    }
+    
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,182 @@
+package com.giftai.provider;
+
+import com.giftai.model.BookRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Offline stand-in for the AI backend, used to load-test the generate → PDF pipeline without
+ * paying for tokens. Stories are deterministic for a given request and seed; latency and
+ * failures are drawn from configurable distributions.
+ */
+@Slf4j
+@Component
+@Profile(LocalBookProvider.PROFILE)
+@RequiredArgsConstructor
+public class LocalBookProvider implements BookProvider {
+    
+    public static final String PROFILE = "local-llm";
+    
+    private static final String[] CHAPTER_TITLES = {
+        "The Beginning", "An Unexpected Discovery", "The Journey", "A New Friend", "The Great Challenge",
+        "A Difficult Choice", "The Secret Revealed", "Working Together", "The Long Way Home", "A Happy Ending"
+    };
+    private static final String[] PLACES = {
+        "the whispering forest", "a quiet village by the sea", "the top of a tall hill", "an old lighthouse",
+        "a garden full of glowing flowers", "a cozy library", "the edge of a sparkling lake", "a busy market square"
+    };
+    private static final String[] FEELINGS = {
+        "curious", "brave", "a little nervous", "excited", "proud", "hopeful", "amazed", "determined"
+    };
+    private static final String[] SENTENCES = {
+        "%1$s looked around %2$s and felt %3$s.",
+        "The air smelled of adventure, and %1$s knew that something about %4$s was waiting to be found.",
+        "\"Do you think we can do it?\" %1$s asked, and a warm smile was the only answer needed.",
+        "Step by step, %1$s walked on, remembering everything %5$s had once said about being %3$s.",
+        "Somewhere in %2$s, a soft sound echoed, as if the whole world was holding its breath.",
+        "It was the kind of moment that makes a story about %4$s feel truly %6$s.",
+        "%1$s took a deep breath, counted to three, and decided to keep going.",
+        "Little by little, the problem became smaller, and the courage inside %1$s grew bigger.",
+        "\"Look!\" %1$s whispered, pointing at something that shimmered in the light.",
+        "Nobody had ever seen %2$s quite like this before, and %1$s wanted to remember every detail."
+    };
+    
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    
+    @Value("${local-llm.seed:42}")
+    private long seed;
+    
+    @Value("${local-llm.chapters:4}")
+    private int chapters;
+    
+    @Value("${local-llm.paragraphs-per-chapter:6}")
+    private int paragraphsPerChapter;
+    
+    @Value("${local-llm.sentences-per-paragraph:5}")
+    private int sentencesPerParagraph;
+    
+    /** fixed, uniform, normal or lognormal */
+    @Value("${local-llm.latency.distribution:lognormal}")
+    private String latencyDistribution;
+    
+    @Value("${local-llm.latency.mean-ms:3000}")
+    private long latencyMeanMs;
+    
+    @Value("${local-llm.latency.stddev-ms:1000}")
+    private long latencyStddevMs;
+    
+    @Value("${local-llm.error-rate:0.0}")
+    private double errorRate;
+    
+    @Override
+    public String generateBook(BookRequest request, Consumer<String> onChunk, CancellationToken cancellation) {
+        log.info("Generating local stand-in book for: {}", request.getName());
+        // Same limiter as the real backend, so load tests exercise it
+        return concurrencyLimiter.execute(AdaptiveConcurrencyLimiter.KIND_STORY, cancellation, () -> {
+            cancellation.throwIfCancelled();
+            // Cancelling interrupts the simulated wait, like closing the socket of a real call
+            Thread worker = Thread.currentThread();
+            try (CancellationToken.Registration interrupt = cancellation.onCancel(worker::interrupt)) {
+                return simulateGeneration(request, onChunk, cancellation);
+            } finally {
+                if (cancellation.isCancelled()) {
+                    Thread.interrupted();
+                }
+            }
+        });
+    }
+    
+    private String simulateGeneration(BookRequest request, Consumer<String> onChunk, CancellationToken cancellation) {
+        long latencyMs = sampleLatencyMs();
+        boolean fail = ThreadLocalRandom.current().nextDouble() < errorRate;
+        
+        List<String> parts = new ArrayList<>();
+        parts.add(BookProvider.formatBookContent(request, ""));
+        Random random = new Random(seed ^ Objects.hash(request.getName(), request.getAge(), request.getTheme(),
+                request.getTone(), request.getMainTopic(), request.getLanguage(), request.getGiver()));
+        for (int chapter = 1; chapter <= chapters; chapter++) {
+            parts.add((chapter > 1 ? "\n\n" : "") + writeChapter(chapter, request, random));
+        }
+        
+        // Spread the sampled latency over the chunks so streaming behaves like a real backend
+        long delayPerPart = latencyMs / parts.size();
+        StringBuilder book = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            sleep(delayPerPart, cancellation);
+            if (fail && i == parts.size() / 2) {
+                throw new IllegalStateException("Simulated AI backend failure");
+            }
+            book.append(parts.get(i));
+            if (onChunk != null) {
+                onChunk.accept(parts.get(i));
+            }
+        }
+        
+        log.info("Local stand-in book generated in ~{} ms ({} characters)", latencyMs, book.length());
+        return book.toString();
+    }
+    
+    private String writeChapter(int number, BookRequest request, Random random) {
+        String topic = request.getMainTopic() != null && !request.getMainTopic().isBlank()
+                ? request.getMainTopic() : request.getTheme();
+        StringBuilder chapter = new StringBuilder()
+                .append("Chapter ").append(number).append(": ")
+                .append(CHAPTER_TITLES[(number - 1) % CHAPTER_TITLES.length]);
+        
+        for (int p = 0; p < paragraphsPerChapter; p++) {
+            chapter.append("\n\n");
+            String place = PLACES[random.nextInt(PLACES.length)];
+            for (int s = 0; s < sentencesPerParagraph; s++) {
+                if (s > 0) {
+                    chapter.append(' ');
+                }
+                chapter.append(String.format(SENTENCES[random.nextInt(SENTENCES.length)],
+                        request.getName(), place, FEELINGS[random.nextInt(FEELINGS.length)],
+                        topic, request.getGiver(), request.getTone().toLowerCase()));
+            }
+        }
+        return chapter.toString();
+    }
+    
+    private long sampleLatencyMs() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double value = switch (latencyDistribution.toLowerCase()) {
+            case "fixed" -> latencyMeanMs;
+            case "uniform" -> random.nextDouble(Math.max(0, latencyMeanMs - latencyStddevMs), latencyMeanMs + latencyStddevMs + 1);
+            case "normal" -> latencyMeanMs + random.nextGaussian() * latencyStddevMs;
+            default -> {
+                // Log-normal with the configured mean and standard deviation: long tail like a real LLM
+                double variance = Math.log(1 + Math.pow((double) latencyStddevMs / Math.max(1, latencyMeanMs), 2));
+                double mu = Math.log(Math.max(1, latencyMeanMs)) - variance / 2;
+                yield Math.exp(mu + Math.sqrt(variance) * random.nextGaussian());
+            }
+        };
+        return Math.max(0, Math.round(value));
+    }
+    
+    private void sleep(long millis, CancellationToken cancellation) {
+        cancellation.throwIfCancelled();
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            if (cancellation.isCancelled()) {
+                throw new GenerationCancelledException(cancellation.getReason(), e);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Generation interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.giftai.provider;
+
+import com.giftai.model.BookRequest;
+import com.giftai.model.CharacterInfo;
+import com.giftai.service.GenerationCacheService;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import com.theokanning.openai.service.OpenAiService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Generates books with the OpenAI chat completion API. Active unless the {@code local-llm}
+ * profile selects the offline {@link LocalBookProvider}.
+ */
+@Slf4j
+@Component
+@Profile("!" + LocalBookProvider.PROFILE)
+@RequiredArgsConstructor
+public class OpenAiBookProvider implements BookProvider {
+    
+    public static final String MODE_PARALLEL = "parallel";
+    private static final int OUTLINE_MAX_TOKENS = 400;
+    private static final int MAX_PARALLEL_CHAPTERS = 6;
+    
+    private final OpenAiClient openAiClient;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final OpenAiCircuitBreaker circuitBreaker;
+    private final GenerationCacheService generationCache;
+    
+    @Value("${openai.api.key:default-key}")
+    private String apiKey;
+    
+    @Value("${openai.model:gpt-3.5-turbo}")
+    private String model;
+    
+    @Value("${generation.mode:single}")
+    private String defaultMode;
+    
+    @Value("${generation.parallel.max-concurrency:8}")
+    private int parallelConcurrency;
+    
+    @Value("${generation.parallel.chapter-max-tokens:1000}")
+    private int chapterMaxTokens;
+    
+    private ThreadPoolTaskExecutor chapterExecutor;
+    
+    @PostConstruct
+    public void init() {
+        chapterExecutor = new ThreadPoolTaskExecutor();
+        chapterExecutor.setCorePoolSize(parallelConcurrency);
+        chapterExecutor.setMaxPoolSize(parallelConcurrency);
+        chapterExecutor.setQueueCapacity(parallelConcurrency * 4);
+        // When saturated, the generating thread writes the chapter itself
+        chapterExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        chapterExecutor.setThreadNamePrefix("book-chapter-");
+        chapterExecutor.initialize();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        chapterExecutor.shutdown();
+    }
+    
+    @Override
+    public String generateBook(BookRequest request, Consumer<String> onChunk, CancellationToken cancellation) {
+        // Without a user there is no cache scope: always generate
+        return generateBook(request, null, onChunk, cancellation);
+    }
+    
+    @Override
+    public String generateBook(BookRequest request, Long userId, Consumer<String> onChunk, CancellationToken cancellation) {
+        log.info("Generating personalized book for: {}", request.getName());
+        
+        // Debug: Log API key status (masked)
+        String maskedKey = apiKey != null && apiKey.length() > 10 
+            ? apiKey.substring(0, 10) + "..." 
+            : "NULL or EMPTY";
+        log.info("OpenAI API Key status: {}", maskedKey);
+        log.info("API Key from property: {}", System.getProperty("OPENAI_API_KEY") != null ? "SET" : "NOT SET");
+        
+        if (apiKey == null || apiKey.equals("default-key") || apiKey.isEmpty()) {
+            log.warn("OpenAI API key not configured, returning dummy response. API Key value: {}", maskedKey);
+            String dummy = getDummyResponse(request);
+            if (onChunk != null) {
+                onChunk.accept(dummy);
+            }
+            return dummy;
+        }
+        
+        String cached = userId != null && !Boolean.TRUE.equals(request.getRegenerate())
+            ? generationCache.get(request, userId) : null;
+        if (cached != null) {
+            String content = BookProvider.formatBookContent(request, cached);
+            if (onChunk != null) {
+                onChunk.accept(content);
+            }
+            return content;
+        }
+        
+        try {
+            // Shared client: connections are pooled and reused across generations
+            OpenAiService service = openAiClient.getService();
+            
+            String appearanceDescription = "";
+            if (request.getAppearance() != null && !request.getAppearance().trim().isEmpty()) {
+                appearanceDescription = String.format(
+                    "\nRecipient's Appearance: %s\n" +
+                    "- Create a vivid visual description of the character based on this appearance\n" +
+                    "- Include detailed physical descriptions throughout the story\n" +
+                    "- Make the character's appearance an integral part of the narrative\n",
+                    request.getAppearance()
+                );
+            }
+            
+            String genderInfo = "";
+            if (request.getGender() != null && !request.getGender().trim().isEmpty()) {
+                genderInfo = String.format(
+                    "\nRecipient's Gender: %s\n" +
+                    "- Use appropriate pronouns (he/him for Boy, she/her for Girl, they/them for Other)\n" +
+                    "- Make the story gender-appropriate and inclusive\n",
+                    request.getGender()
+                );
+            }
+            
+            String charactersInfo = "";
+            if (request.getCharacters() != null && !request.getCharacters().isEmpty()) {
+                StringBuilder charsBuilder = new StringBuilder("\nCharacters in the Story:\n");
+                for (CharacterInfo character : request.getCharacters()) {
+                    charsBuilder.append(String.format(
+                        "- %s (%s):\n" +
+                        "  Appearance: %s\n" +
+                        "  Description: %s\n" +
+                        "  - Include this character naturally throughout the story\n" +
+                        "  - Make them an integral part of the narrative\n" +
+                        "  - Use their appearance and description to create vivid scenes\n",
+                        character.getName(),
+                        character.getType(),
+                        character.getAppearance() != null && !character.getAppearance().trim().isEmpty() 
+                            ? character.getAppearance() : "Not specified",
+                        character.getDescription() != null && !character.getDescription().trim().isEmpty() 
+                            ? character.getDescription() : "Not specified"
+                    ));
+                }
+                charactersInfo = charsBuilder.toString();
+            }
+            
+            String languageInfo = "";
+            if (request.getLanguage() != null && !request.getLanguage().trim().isEmpty()) {
+                languageInfo = String.format(
+                    "\nLanguage: Write the ENTIRE story in %s language\n" +
+                    "- All text, dialogue, narration, and content must be in %s\n" +
+                    "- Use proper grammar and vocabulary for %s\n" +
+                    "- Maintain cultural authenticity if applicable\n",
+                    request.getLanguage(),
+                    request.getLanguage(),
+                    request.getLanguage()
+                );
+            }
+            
+            String mainTopicInfo = "";
+            if (request.getMainTopic() != null && !request.getMainTopic().trim().isEmpty()) {
+                mainTopicInfo = String.format(
+                    "\nMain Topic/Subject: %s\n" +
+                    "- The story should revolve around this main topic\n" +
+                    "- Incorporate this theme throughout the narrative\n" +
+                    "- Make it the central focus of the story\n",
+                    request.getMainTopic()
+                );
+            }
+            
+            String storyDetails = String.format(
+                "Recipient's Name: %s\n" +
+                "Recipient's Age: %d years old\n" +
+                "%s" +
+                "%s" +
+                "Theme: %s\n" +
+                "%s" +
+                "Tone: %s\n" +
+                "Gift Giver: %s\n" +
+                "%s" +
+                "%s",
+                request.getName(),
+                request.getAge(),
+                genderInfo,
+                languageInfo,
+                request.getTheme(),
+                mainTopicInfo,
+                request.getTone(),
+                request.getGiver(),
+                appearanceDescription,
+                charactersInfo
+            );
+            
+            String prompt =
+                "Create a personalized children's book as a gift. Write a complete, engaging story.\n\n" +
+                storyDetails +
+                "\nRequirements:\n" +
+                "- Write a complete story (approximately 2000-2500 words, max 3000 tokens)\n" +
+                "- Create 3-4 chapters with clear chapter headings\n" +
+                "- Use descriptive paragraphs with good detail\n" +
+                "- Include dialogue between characters\n" +
+                "- Describe settings, emotions, and actions\n" +
+                "- Naturally incorporate the recipient's name throughout the narrative (at least 8-10 times)\n" +
+                "- Make it age-appropriate and engaging\n" +
+                "- Format with clear chapter headings (Chapter 1: [Title], Chapter 2: [Title], etc.)";
+            
+            List<ChatMessage> messages = new ArrayList<>();
+            ChatMessage systemMessage = new ChatMessage(ChatMessageRole.SYSTEM.value(), 
+                "You are a talented children's book author. " +
+                "You write engaging, complete stories (approximately 2000-2500 words, max 3000 tokens). " +
+                "Your stories have 3-4 chapters with clear structure. " +
+                "Your writing style includes: descriptive paragraphs, detailed dialogue, rich narrative, " +
+                "vivid scene descriptions, and character development. " +
+                "Always include the recipient's name naturally throughout the narrative (8-10 times minimum). " +
+                "Write a complete, engaging story that is age-appropriate.");
+            ChatMessage userMessage = new ChatMessage(ChatMessageRole.USER.value(), prompt);
+            messages.add(systemMessage);
+            messages.add(userMessage);
+            
+            // Set maxTokens to 3000 (user requested limit)
+            // This is safe for all models (gpt-3.5-turbo max 4096, gpt-4o max 16384, etc.)
+            int maxTokensValue = 3000; // User requested max 3000 tokens
+            String actualModel = model;
+            
+            // No auto-upgrade needed with 3000 token limit - gpt-3.5-turbo can handle it
+            if (model.equals("gpt-3.5-turbo")) {
+                // Keep gpt-3.5-turbo, no need to upgrade for 3000 tokens
+                log.info("Using gpt-3.5-turbo with 3000 token limit");
+            }
+            
+            log.info("Using model: {} with maxTokens: {} (requested model: {})", actualModel, maxTokensValue, model);
+            
+            ChatCompletionRequest chatRequest = ChatCompletionRequest.builder()
+                .model(actualModel) // Use the actual model (may be upgraded to 16k)
+                .messages(messages)
+                .maxTokens(maxTokensValue)
+                .temperature(0.8)
+                .build();
+            
+            String response;
+            if (isParallelMode(request)) {
+                response = generateChaptersInParallel(service, request, storyDetails, onChunk, cancellation);
+            } else if (onChunk == null) {
+                response = callUpstream(AdaptiveConcurrencyLimiter.KIND_STORY, cancellation, () -> service.createChatCompletion(chatRequest)
+                    .getChoices()
+                    .get(0)
+                    .getMessage()
+                    .getContent());
+            } else {
+                // Send the book header right away so the client sees output before the first token
+                onChunk.accept(BookProvider.formatBookContent(request, ""));
+                response = callUpstream(AdaptiveConcurrencyLimiter.KIND_STORY, cancellation, () -> {
+                    StringBuilder streamed = new StringBuilder();
+                    service.streamChatCompletion(chatRequest).blockingForEach(chunk -> {
+                        if (chunk.getChoices() == null || chunk.getChoices().isEmpty()
+                                || chunk.getChoices().get(0).getMessage() == null) {
+                            return;
+                        }
+                        String text = chunk.getChoices().get(0).getMessage().getContent();
+                        if (text != null && !text.isEmpty()) {
+                            streamed.append(text);
+                            onChunk.accept(text);
+                        }
+                    });
+                    return streamed.toString();
+                });
+            }
+            
+            log.info("OpenAI API response received successfully");
+            System.out.println("\n=== OpenAI API Response ===");
+            System.out.println(response);
+            System.out.println("===========================\n");
+            
+            if (userId != null) {
+                generationCache.put(request, userId, response);
+            }
+            return BookProvider.formatBookContent(request, response);
+        
+        } catch (ConcurrencyLimitExceededException | CircuitBreakerOpenException | GenerationCancelledException e) {
+            // Surface it so the caller can retry later (or knows nobody is waiting for the book
+            // anymore); a placeholder story would be saved as if it were the real book
+            if (e instanceof CircuitBreakerOpenException) {
+                log.warn("OpenAI circuit breaker is open, not generating book for: {}", request.getName());
+            }
+            throw e;
+        } catch (Exception e) {
+            log.error("Error calling OpenAI API: {}", e.getMessage(), e);
+            System.out.println("\n=== OpenAI API Error ===");
+            System.out.println("Error: " + e.getMessage());
+            System.out.println("========================\n");
+            return getDummyResponse(request);
+        }
+    }
+    
+    private boolean isParallelMode(BookRequest request) {
+        String mode = request.getGenerationMode() != null && !request.getGenerationMode().isBlank()
+            ? request.getGenerationMode()
+            : defaultMode;
+        return MODE_PARALLEL.equalsIgnoreCase(mode.trim());
+    }
+    
+    /**
+     * Outline-then-chapters mode: one short call produces the outline, then every chapter is
+     * written concurrently with the outline as shared context. Wall-clock time is roughly one
+     * outline plus one chapter instead of the whole story. Chapters are emitted to
+     * {@code onChunk} in order as soon as each one (and all before it) is done.
+     */
+    private String generateChaptersInParallel(OpenAiService service, BookRequest request, String storyDetails,
+                                              Consumer<String> onChunk, CancellationToken cancellation) {
+        String outlinePrompt =
+            "Plan a personalized children's book as a gift.\n\n" +
+            storyDetails +
+            "\nWrite a compact outline with 3-4 chapters. Return ONLY the outline: one line per chapter, " +
+            "in the format 'Chapter N: [Title] - [one or two sentence summary]', written in the story's language. " +
+            "No introduction or other text.";
+        String outline = complete(service,
+            "You are a talented children's book author who plans well-structured, age-appropriate stories.",
+            outlinePrompt, OUTLINE_MAX_TOKENS, AdaptiveConcurrencyLimiter.KIND_OUTLINE, cancellation);
+        
+        List<String> chapterPlans = outline.lines()
+            .map(line -> line.replaceFirst("^[\\s*#>\\-]+", "").trim())
+            .filter(line -> !line.isEmpty())
+            .limit(MAX_PARALLEL_CHAPTERS)
+            .toList();
+        if (chapterPlans.isEmpty()) {
+            throw new IllegalStateException("AI returned an empty outline");
+        }
+        log.info("Outline with {} chapters received, writing chapters in parallel", chapterPlans.size());
+        
+        List<CompletableFuture<String>> chapters = new ArrayList<>();
+        for (int i = 0; i < chapterPlans.size(); i++) {
+            String chapterPrompt =
+                "You are writing one chapter of a personalized children's book.\n\n" +
+                storyDetails +
+                "\nOutline of the whole book:\n" + outline.trim() + "\n\n" +
+                "Write ONLY this chapter: " + chapterPlans.get(i) + "\n" +
+                "Requirements:\n" +
+                "- Start with the chapter heading on its own line, e.g. 'Chapter " + (i + 1) + ": [Title]'\n" +
+                "- Approximately 500-700 words, in descriptive paragraphs with dialogue\n" +
+                "- Stay consistent with the outline, but do not write any other chapter\n" +
+                "- Naturally use the recipient's name 2-3 times\n" +
+                "- Make it age-appropriate and engaging";
+            chapters.add(CompletableFuture.supplyAsync(() -> complete(service,
+                "You are a talented children's book author. Your writing style includes descriptive paragraphs, " +
+                "detailed dialogue, vivid scene descriptions and character development.",
+                chapterPrompt, chapterMaxTokens, AdaptiveConcurrencyLimiter.KIND_CHAPTER, cancellation), chapterExecutor));
+        }
+        
+        if (onChunk != null) {
+            onChunk.accept(BookProvider.formatBookContent(request, ""));
+        }
+        
+        StringBuilder book = new StringBuilder();
+        try {
+            for (CompletableFuture<String> chapter : chapters) {
+                String text = (book.length() > 0 ? "\n\n" : "") + chapter.join().trim();
+                book.append(text);
+                if (onChunk != null) {
+                    onChunk.accept(text);
+                }
+            }
+        } catch (RuntimeException e) {
+            chapters.forEach(chapter -> chapter.cancel(true));
+            throw e instanceof CompletionException && e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return book.toString();
+    }
+    
+    private String complete(OpenAiService service, String systemPrompt, String userPrompt, int maxTokens, String kind,
+                            CancellationToken cancellation) {
+        ChatCompletionRequest chatRequest = ChatCompletionRequest.builder()
+            .model(model)
+            .messages(List.of(
+                new ChatMessage(ChatMessageRole.SYSTEM.value(), systemPrompt),
+                new ChatMessage(ChatMessageRole.USER.value(), userPrompt)))
+            .maxTokens(maxTokens)
+            .temperature(0.8)
+            .build();
+        return callUpstream(kind, cancellation, () -> service.createChatCompletion(chatRequest)
+            .getChoices()
+            .get(0)
+            .getMessage()
+            .getContent());
+    }
+    
+    /**
+     * Every OpenAI call goes through the circuit breaker (fail fast while the API is down) and
+     * then the concurrency limiter. The HTTP call is bound to {@code cancellation}, so cancelling
+     * the generation aborts it, and a call whose generation is cancelled while it waits for a
+     * slot gives up its place in the queue and is never sent.
+     */
+    private <T> T callUpstream(String kind, CancellationToken cancellation, Supplier<T> call) {
+        return circuitBreaker.execute(() -> concurrencyLimiter.execute(kind, cancellation, () -> {
+            cancellation.throwIfCancelled();
+            try (CancellationToken.Registration binding = cancellation.bind()) {
+                return call.get();
+            } catch (RuntimeException e) {
+                if (cancellation.isCancelled()) {
+                    throw new GenerationCancelledException(cancellation.getReason(), e);
+                }
+                throw e;
+            }
+        }));
+    }
+    
+    private String getDummyResponse(BookRequest request) {
+        return String.format(
+            "A Special Gift for %s\n\n" +
+            "From: %s\n\n" +
+            "━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━\n\n" +
+            "Chapter 1: The Beginning\n\n" +
+            "Once upon a time, there was a wonderful person named %s. " +
+            "This is a personalized story created just for you! " +
+            "The theme of this story is %s, and it will be told in a %s tone. " +
+            "This is a dummy response. Please configure your OpenAI API key in the .env file to generate a real personalized book.",
+            request.getName(),
+            request.getGiver(),
+            request.getName(),
+            request.getTheme(),
+            request.getTone()
+        );
+    }
+}
+
@@ -0,0 +1,270 @@
+package com.giftai.provider;
+
+import com.theokanning.openai.OpenAiHttpException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker for OpenAI calls. The outcome of the last {@code window-size} calls is kept in
+ * a ring buffer; once at least {@code minimum-calls} are recorded and the failure rate reaches
+ * the threshold, the breaker opens and calls fail immediately with
+ * {@link CircuitBreakerOpenException}. After {@code open-seconds} it lets a few trial calls
+ * through (half-open): if they all succeed it closes again, otherwise it re-opens.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OpenAiCircuitBreaker {
+    
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final MeterRegistry meterRegistry;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private State state = State.CLOSED;
+    private boolean[] window;
+    private int windowIndex;
+    private int recordedCalls;
+    private int failedCalls;
+    private Instant openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+    private Instant lastTransitionAt = Instant.now();
+    private String lastFailure;
+    private Counter shortCircuited;
+    
+    @Value("${openai.circuit-breaker.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${openai.circuit-breaker.window-size:20}")
+    private int windowSize;
+    
+    @Value("${openai.circuit-breaker.minimum-calls:5}")
+    private int minimumCalls;
+    
+    @Value("${openai.circuit-breaker.failure-rate-threshold:50}")
+    private int failureRateThreshold;
+    
+    @Value("${openai.circuit-breaker.open-seconds:30}")
+    private long openSeconds;
+    
+    @Value("${openai.circuit-breaker.half-open-calls:2}")
+    private int halfOpenCalls;
+    
+    @PostConstruct
+    public void init() {
+        window = new boolean[Math.max(1, windowSize)];
+        shortCircuited = meterRegistry.counter("openai.circuit.short-circuited");
+        // 0 = closed, 1 = open, 2 = half-open
+        Gauge.builder("openai.circuit.state", this, breaker -> breaker.getState().ordinal()).register(meterRegistry);
+    }
+    
+    /**
+     * Runs the call unless the breaker is open, recording whether it failed.
+     *
+     * @throws CircuitBreakerOpenException if the breaker is open
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        boolean trialCall = acquirePermission();
+        try {
+            T result = call.get();
+            onResult(trialCall, null);
+            return result;
+        } catch (ConcurrencyLimitExceededException | GenerationCancelledException e) {
+            // Rejected locally or abandoned by us: says nothing about the backend's health
+            onIgnored(trialCall);
+            throw e;
+        } catch (RuntimeException e) {
+            if (countsAsFailure(e)) {
+                onResult(trialCall, e);
+            } else {
+                onResult(trialCall, null);
+            }
+            throw e;
+        }
+    }
+    
+    public State getState() {
+        lock.lock();
+        try {
+            return currentState();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the breaker and clears the failure window.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            transitionTo(State.CLOSED, "manual reset");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            State current = currentState();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", enabled);
+            stats.put("state", current.name());
+            stats.put("since", lastTransitionAt.toString());
+            stats.put("failureRatePercent", recordedCalls == 0 ? 0 : failedCalls * 100 / recordedCalls);
+            stats.put("recordedCalls", recordedCalls);
+            stats.put("failedCalls", failedCalls);
+            stats.put("windowSize", window.length);
+            stats.put("minimumCalls", minimumCalls);
+            stats.put("failureRateThreshold", failureRateThreshold);
+            if (current == State.OPEN) {
+                stats.put("retryAfterSeconds", secondsUntilHalfOpen());
+            }
+            stats.put("shortCircuitedCalls", (long) shortCircuited.count());
+            stats.put("lastFailure", lastFailure);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return true if the call is a half-open trial call
+     */
+    private boolean acquirePermission() {
+        lock.lock();
+        try {
+            State current = currentState();
+            if (current == State.CLOSED) {
+                return false;
+            }
+            if (current == State.HALF_OPEN && halfOpenInFlight + halfOpenSucceeded < halfOpenCalls) {
+                halfOpenInFlight++;
+                return true;
+            }
+            shortCircuited.increment();
+            throw new CircuitBreakerOpenException("OpenAI circuit breaker is open", Math.max(1, secondsUntilHalfOpen()));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void onResult(boolean trialCall, RuntimeException failure) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                lastFailure = failure.getClass().getSimpleName() + ": " + failure.getMessage();
+            }
+            if (trialCall) {
+                halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                if (failure != null) {
+                    transitionTo(State.OPEN, "trial call failed");
+                } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                    transitionTo(State.CLOSED, "trial calls succeeded");
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            
+            if (recordedCalls == window.length && window[windowIndex]) {
+                failedCalls--;
+            }
+            window[windowIndex] = failure != null;
+            windowIndex = (windowIndex + 1) % window.length;
+            recordedCalls = Math.min(recordedCalls + 1, window.length);
+            if (failure != null) {
+                failedCalls++;
+            }
+            if (recordedCalls >= minimumCalls && failedCalls * 100 >= failureRateThreshold * recordedCalls) {
+                transitionTo(State.OPEN, failedCalls + " of the last " + recordedCalls + " calls failed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void onIgnored(boolean trialCall) {
+        if (!trialCall) {
+            return;
+        }
+        lock.lock();
+        try {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private State currentState() {
+        if (state == State.OPEN && secondsUntilHalfOpen() <= 0) {
+            transitionTo(State.HALF_OPEN, "open period elapsed");
+        }
+        return state;
+    }
+    
+    private void transitionTo(State newState, String reason) {
+        if (newState == state && newState != State.OPEN) {
+            return;
+        }
+        State previous = state;
+        state = newState;
+        lastTransitionAt = Instant.now();
+        halfOpenInFlight = 0;
+        halfOpenSucceeded = 0;
+        if (newState == State.OPEN) {
+            openedAt = lastTransitionAt;
+        }
+        if (newState == State.CLOSED) {
+            window = new boolean[window.length];
+            windowIndex = 0;
+            recordedCalls = 0;
+            failedCalls = 0;
+        }
+        if (newState == State.OPEN) {
+            log.warn("OpenAI circuit breaker {} -> OPEN ({}), failing fast for {}s", previous, reason, openSeconds);
+        } else {
+            log.info("OpenAI circuit breaker {} -> {} ({})", previous, newState, reason);
+        }
+    }
+    
+    private long secondsUntilHalfOpen() {
+        if (openedAt == null) {
+            return 0;
+        }
+        return Duration.between(Instant.now(), openedAt.plusSeconds(openSeconds)).toSeconds();
+    }
+    
+    /**
+     * Client errors such as a malformed request say nothing about the backend's health.
+     */
+    private boolean countsAsFailure(RuntimeException error) {
+        if (error instanceof OpenAiHttpException http) {
+            int status = http.statusCode;
+            return status >= 500 || status == 408 || status == 429 || status == 401;
+        }
+        return true;
+    }
+}
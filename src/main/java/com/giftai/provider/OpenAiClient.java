@@ -0,0 +1,190 @@
+package com.giftai.provider;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single, shared OpenAI client. One OkHttp client (connection pool, dispatcher, HTTP/2
+ * keep-alive pings) and one Retrofit instance are built at startup and reused by every
+ * call, so requests no longer pay for a fresh TLS handshake each time.
+ * <p>
+ * Calls started while a {@link CancellationToken} is bound to the thread are cancelled
+ * (socket closed, streaming stopped) as soon as that token is cancelled.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OpenAiClient {
+    
+    private final MeterRegistry meterRegistry;
+    
+    private OkHttpClient httpClient;
+    private OpenAiService service;
+    
+    @Value("${openai.api.key:default-key}")
+    private String apiKey;
+    
+    @Value("${openai.client.connect-timeout-seconds:10}")
+    private long connectTimeoutSeconds;
+    
+    @Value("${openai.client.write-timeout-seconds:30}")
+    private long writeTimeoutSeconds;
+    
+    @Value("${openai.client.read-timeout-seconds:1800}")
+    private long readTimeoutSeconds;
+    
+    @Value("${openai.client.call-timeout-seconds:0}")
+    private long callTimeoutSeconds;
+    
+    @Value("${openai.client.max-idle-connections:10}")
+    private int maxIdleConnections;
+    
+    @Value("${openai.client.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+    
+    @Value("${openai.client.ping-interval-seconds:30}")
+    private long pingIntervalSeconds;
+    
+    @Value("${openai.client.max-requests:64}")
+    private int maxRequests;
+    
+    @Value("${openai.client.max-requests-per-host:32}")
+    private int maxRequestsPerHost;
+    
+    @PostConstruct
+    public void init() {
+        // Bounded executor for asynchronous (streaming) calls; synchronous calls run on the caller's thread
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor dispatcherExecutor = new ThreadPoolExecutor(
+                maxRequests, maxRequests, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "openai-dispatcher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        dispatcherExecutor.allowCoreThreadTimeOut(true);
+        
+        Dispatcher dispatcher = new Dispatcher(dispatcherExecutor);
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        
+        httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                        .header("Authorization", "Bearer " + apiKey)
+                        .build()))
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .pingInterval(pingIntervalSeconds, TimeUnit.SECONDS)
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(writeTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .callTimeout(callTimeoutSeconds, TimeUnit.SECONDS)
+                .eventListenerFactory(OpenAiClient::cancellationListener)
+                .build();
+        
+        OpenAiApi api = OpenAiService.defaultRetrofit(httpClient, OpenAiService.defaultObjectMapper())
+                .create(OpenAiApi.class);
+        service = new OpenAiService(api, dispatcherExecutor);
+        
+        ConnectionPool pool = httpClient.connectionPool();
+        Gauge.builder("openai.client.connections", pool, ConnectionPool::connectionCount)
+                .tag("state", "total").register(meterRegistry);
+        Gauge.builder("openai.client.connections", pool, ConnectionPool::idleConnectionCount)
+                .tag("state", "idle").register(meterRegistry);
+        Gauge.builder("openai.client.calls", dispatcher, Dispatcher::runningCallsCount)
+                .tag("state", "running").register(meterRegistry);
+        Gauge.builder("openai.client.calls", dispatcher, Dispatcher::queuedCallsCount)
+                .tag("state", "queued").register(meterRegistry);
+        
+        log.info("OpenAI client initialized (max idle connections: {}, max requests: {}, read timeout: {}s)",
+                maxIdleConnections, maxRequests, readTimeoutSeconds);
+    }
+    
+    /**
+     * Runs on the thread that creates the call (also for streaming calls, which are enqueued
+     * there), so the current token is the one of the generation making the call. The hook is
+     * registered on callStart, once the call is fully constructed and can be cancelled.
+     */
+    private static EventListener cancellationListener(Call call) {
+        CancellationToken token = CancellationToken.current();
+        if (token == CancellationToken.NONE) {
+            return EventListener.NONE;
+        }
+        return new EventListener() {
+            private CancellationToken.Registration registration;
+            
+            @Override
+            public void callStart(Call call) {
+                registration = token.onCancel(call::cancel);
+            }
+            
+            @Override
+            public void callEnd(Call call) {
+                release();
+            }
+            
+            @Override
+            public void callFailed(Call call, IOException ioe) {
+                release();
+            }
+            
+            private void release() {
+                if (registration != null) {
+                    registration.close();
+                }
+            }
+        };
+    }
+    
+    public OpenAiService getService() {
+        return service;
+    }
+    
+    /**
+     * Snapshot of connection pool and dispatcher utilisation, used to size the pool.
+     */
+    public Map<String, Object> getPoolStats() {
+        ConnectionPool pool = httpClient.connectionPool();
+        Dispatcher dispatcher = httpClient.dispatcher();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connections", pool.connectionCount());
+        stats.put("idleConnections", pool.idleConnectionCount());
+        stats.put("maxIdleConnections", maxIdleConnections);
+        stats.put("runningCalls", dispatcher.runningCallsCount());
+        stats.put("queuedCalls", dispatcher.queuedCallsCount());
+        stats.put("maxRequests", dispatcher.getMaxRequests());
+        stats.put("maxRequestsPerHost", dispatcher.getMaxRequestsPerHost());
+        return stats;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down OpenAI client");
+        service.shutdownExecutor();
+        httpClient.connectionPool().evictAll();
+    }
+}
@@ -11,5 +11,7 @@ public interface BookRepository extends JpaRepository<BookEntity, Long> {
     List<BookEntity> findAllByOrderByCreatedAtDesc();
     List<BookEntity> findByUserIdOrderByCreatedAtDesc(Long userId);
     List<BookEntity> findByIsPublicTrueOrderByCreatedAtDesc();
+    List<BookEntity> findTop100ByDocumentIsNullAndIdGreaterThanOrderByIdAsc(Long id);
+    boolean existsByPdfPath(String pdfPath);
 }
 
@@ -0,0 +1,37 @@
+package com.giftai.repository;
+
+import com.giftai.entity.GenerationCacheEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface GenerationCacheRepository extends JpaRepository<GenerationCacheEntity, String> {
+    // Plain INSERT (not save/merge) so a concurrent insert of the same key fails on the primary key
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO generation_cache (cache_key, content, hit_count, created_at) " +
+            "VALUES (:cacheKey, :content, 0, :createdAt)", nativeQuery = true)
+    int insert(String cacheKey, String content, LocalDateTime createdAt);
+    
+    // Re-caching a key starts its TTL and hit count over
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationCacheEntity c SET c.content = :content, c.hitCount = 0, c.createdAt = :createdAt " +
+            "WHERE c.cacheKey = :cacheKey")
+    int refresh(String cacheKey, String content, LocalDateTime createdAt);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationCacheEntity c SET c.hitCount = c.hitCount + 1 WHERE c.cacheKey = :cacheKey")
+    int incrementHitCount(String cacheKey);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GenerationCacheEntity c WHERE c.createdAt < :cutoff")
+    int deleteByCreatedAtBefore(LocalDateTime cutoff);
+}
@@ -0,0 +1,139 @@
+package com.giftai.repository;
+
+import com.giftai.entity.GenerationJobEntity;
+import com.giftai.service.GenerationJobService;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface GenerationJobRepository extends JpaRepository<GenerationJobEntity, String> {
+    long countByStatus(GenerationJobService.Status status);
+    long countByStatusAndBatchIdIsNull(GenerationJobService.Status status);
+    long countByStatusAndBatchIdIsNotNull(GenerationJobService.Status status);
+    List<GenerationJobEntity> findByBatchIdOrderByBatchIndex(String batchId);
+    List<GenerationJobEntity> findByIdInAndCancelReasonIsNotNull(Collection<String> ids);
+    List<GenerationJobEntity> findTop100ByStatusAndDeadlineAtLessThanEqual(GenerationJobService.Status status, LocalDateTime now);
+    
+    @Query("SELECT j.id FROM GenerationJobEntity j WHERE j.userId = :userId AND j.status = :status")
+    List<String> findIdsByUserIdAndStatus(Long userId, GenerationJobService.Status status);
+    
+    // Queued jobs in the order the scheduler serves them: the n-th queued job of a (user, lane) flow
+    // gets the tag n / lane weight and the smallest tag goes first, i.e. weighted fair queueing
+    // across all instances instead of within each one. Batch items wait for the item whose story
+    // they reuse, and only the first :batchParallel minus the running items of a batch are offered.
+    @Query(value = "SELECT q.id FROM (SELECT g.id, g.created_at, g.batch_id, g.batch_index, " +
+            "ROW_NUMBER() OVER (PARTITION BY g.user_id, g.lane ORDER BY g.created_at, g.batch_index) / CASE g.lane " +
+            "WHEN 'PRIORITY' THEN CAST(:priorityWeight AS DOUBLE PRECISION) " +
+            "WHEN 'BATCH' THEN CAST(:batchWeight AS DOUBLE PRECISION) " +
+            "ELSE CAST(:standardWeight AS DOUBLE PRECISION) END AS tag, " +
+            "ROW_NUMBER() OVER (PARTITION BY g.batch_id ORDER BY g.batch_index) AS batch_rank " +
+            "FROM generation_jobs g WHERE g.status = 'QUEUED' AND NOT EXISTS (SELECT 1 FROM generation_jobs l " +
+            "WHERE l.id = g.after_job_id AND l.status IN ('QUEUED', 'RUNNING'))) q " +
+            "WHERE q.batch_id IS NULL OR q.batch_rank + (SELECT COUNT(*) FROM generation_jobs r " +
+            "WHERE r.batch_id = q.batch_id AND r.status = 'RUNNING') <= :batchParallel " +
+            "ORDER BY q.tag, q.created_at, q.batch_index LIMIT :limit", nativeQuery = true)
+    List<String> findQueuedInTurnOrder(double priorityWeight, double standardWeight, double batchWeight,
+                                       int batchParallel, int limit);
+    
+    // Locks the given jobs that are still queued and not held by a submitting instance, until the
+    // caller's transaction ends. Rows another instance is claiming right now are skipped instead of
+    // waited for, so pollers never block each other or claim the same job.
+    @Query(value = "SELECT id FROM generation_jobs WHERE id IN (:ids) AND status = 'QUEUED' " +
+            "AND (lease_expires_at IS NULL OR lease_expires_at < :now) FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<String> lockClaimable(Collection<String> ids, LocalDateTime now);
+    
+    // Batches whose items have all finished but whose PDFs have not been handed to the renderer yet
+    @Query("SELECT DISTINCT j.batchId FROM GenerationJobEntity j WHERE j.batchId IS NOT NULL AND j.status = :completed " +
+            "AND j.renderQueued = false AND NOT EXISTS (SELECT o.id FROM GenerationJobEntity o " +
+            "WHERE o.batchId = j.batchId AND o.status IN :pending)")
+    List<String> findBatchesAwaitingRender(GenerationJobService.Status completed, Collection<GenerationJobService.Status> pending);
+    
+    // The completed items of a batch whose PDFs are not queued yet, locked so only one instance queues them
+    @Query(value = "SELECT * FROM generation_jobs WHERE batch_id = :batchId AND status = 'COMPLETED' " +
+            "AND render_queued = false FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<GenerationJobEntity> lockAwaitingRender(String batchId);
+    
+    // Running jobs whose instance stopped renewing the lease
+    @Query(value = "SELECT * FROM generation_jobs WHERE status = 'RUNNING' AND lease_expires_at < :now " +
+            "ORDER BY lease_expires_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<GenerationJobEntity> lockExpired(LocalDateTime now, int limit);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :running, j.attempts = j.attempts + 1, j.leaseOwner = :owner, " +
+            "j.leaseExpiresAt = :leaseExpiresAt, j.updatedAt = :now WHERE j.id IN :ids AND j.status = :queued")
+    int claim(Collection<String> ids, GenerationJobService.Status queued, GenerationJobService.Status running,
+              String owner, LocalDateTime leaseExpiresAt, LocalDateTime now);
+    
+    // Hands a job the owner holds back to the queue (a submitted job once its key is settled, or a
+    // claimed one the owner could not start)
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :queued, j.leaseOwner = null, j.leaseExpiresAt = null, " +
+            "j.updatedAt = :now WHERE j.id = :id AND j.leaseOwner = :owner")
+    int release(String id, String owner, GenerationJobService.Status queued, LocalDateTime now);
+    
+    // Gives the owner's jobs back to the queue when it shuts down; the interrupted attempt does not
+    // count, and jobs asked to be cancelled are left to be settled as such
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :queued, j.attempts = j.attempts - 1, j.leaseOwner = null, " +
+            "j.leaseExpiresAt = null, j.updatedAt = :now WHERE j.id IN :ids AND j.leaseOwner = :owner " +
+            "AND j.status = :running AND j.cancelReason IS NULL")
+    int handBack(Collection<String> ids, String owner, GenerationJobService.Status running,
+                 GenerationJobService.Status queued, LocalDateTime now);
+    
+    // Puts a job that could not get an AI slot back in the queue until notBefore (kept in
+    // leaseExpiresAt with no owner, which claiming already waits for); the attempt does not count
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :queued, j.attempts = j.attempts - 1, j.leaseOwner = null, " +
+            "j.leaseExpiresAt = :notBefore, j.retryAfterSeconds = :retryAfterSeconds, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.leaseOwner = :owner AND j.status = :running AND j.cancelReason IS NULL")
+    int defer(String id, String owner, GenerationJobService.Status running, GenerationJobService.Status queued,
+              LocalDateTime notBefore, Long retryAfterSeconds, LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.leaseExpiresAt = :leaseExpiresAt WHERE j.id IN :ids AND j.leaseOwner = :owner")
+    int renew(Collection<String> ids, String owner, LocalDateTime leaseExpiresAt);
+    
+    // Only while the owner still holds the lease: a job reclaimed from it is no longer its to finish
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :status, j.bookId = :bookId, j.error = :error, " +
+            "j.retryAfterSeconds = :retryAfterSeconds, j.leaseOwner = null, j.leaseExpiresAt = null, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.leaseOwner = :owner")
+    int finish(String id, String owner, GenerationJobService.Status status, Long bookId, String error,
+               Long retryAfterSeconds, LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.status = :cancelled, j.cancelReason = :reason, j.error = :error, " +
+            "j.leaseOwner = null, j.leaseExpiresAt = null, j.updatedAt = :now WHERE j.id = :id AND j.status = :queued")
+    int cancelQueued(String id, GenerationJobService.Status queued, GenerationJobService.Status cancelled,
+                     String reason, String error, LocalDateTime now);
+    
+    // The owner sees it with its next heartbeat and aborts the generation
+    @Modifying
+    @Transactional
+    @Query("UPDATE GenerationJobEntity j SET j.cancelReason = :reason WHERE j.id = :id AND j.status = :running " +
+            "AND j.cancelReason IS NULL")
+    int requestCancel(String id, GenerationJobService.Status running, String reason);
+    
+    // The items of a batch go together, once all of them are old enough and its PDFs were handed off
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM GenerationJobEntity j WHERE j.status IN :statuses AND j.updatedAt < :cutoff " +
+            "AND (j.batchId IS NULL OR NOT EXISTS (SELECT o.id FROM GenerationJobEntity o WHERE o.batchId = j.batchId " +
+            "AND (o.status NOT IN :statuses OR o.updatedAt >= :cutoff OR (o.status = :completed AND o.renderQueued = false))))")
+    int deleteFinishedBefore(Collection<GenerationJobService.Status> statuses, GenerationJobService.Status completed,
+                             LocalDateTime cutoff);
+}
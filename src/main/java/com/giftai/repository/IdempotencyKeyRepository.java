@@ -0,0 +1,41 @@
+package com.giftai.repository;
+
+import com.giftai.entity.IdempotencyKeyEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKeyEntity, String> {
+    // Plain INSERT (not save/merge) so a concurrent claim of the same key fails on the primary key
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO idempotency_keys (key_hash, user_id, request_hash, job_id, created_at, expires_at) " +
+            "VALUES (:keyHash, :userId, :requestHash, :jobId, :createdAt, :expiresAt)", nativeQuery = true)
+    int insert(String keyHash, Long userId, String requestHash, String jobId, LocalDateTime createdAt, LocalDateTime expiresAt);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE IdempotencyKeyEntity k SET k.jobId = :newJobId, k.expiresAt = :expiresAt " +
+            "WHERE k.keyHash = :keyHash AND k.jobId = :oldJobId AND k.bookId IS NULL")
+    int replaceJob(String keyHash, String oldJobId, String newJobId, LocalDateTime expiresAt);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE IdempotencyKeyEntity k SET k.bookId = :bookId WHERE k.keyHash = :keyHash AND k.jobId = :jobId")
+    int setBookId(String keyHash, String jobId, Long bookId);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyKeyEntity k WHERE k.keyHash = :keyHash AND k.jobId = :jobId")
+    int deleteByKeyHashAndJobId(String keyHash, String jobId);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyKeyEntity k WHERE k.expiresAt < :now")
+    int deleteExpired(LocalDateTime now);
+}
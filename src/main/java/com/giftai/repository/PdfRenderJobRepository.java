@@ -0,0 +1,73 @@
+package com.giftai.repository;
+
+import com.giftai.entity.PdfRenderJobEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PdfRenderJobRepository extends JpaRepository<PdfRenderJobEntity, Long> {
+    Optional<PdfRenderJobEntity> findByBookId(Long bookId);
+    List<PdfRenderJobEntity> findTop100ByStatusOrderByUpdatedAtDesc(PdfRenderJobEntity.Status status);
+    long countByStatus(PdfRenderJobEntity.Status status);
+    long countByBookIdInAndStatusIn(Collection<Long> bookIds, Collection<PdfRenderJobEntity.Status> statuses);
+    
+    // Due jobs, oldest first, locked until the caller's transaction ends. Rows another instance is
+    // claiming right now are skipped instead of waited for, so pollers never block each other.
+    @Query(value = "SELECT id FROM pdf_render_jobs WHERE status IN ('QUEUED', 'FAILED') AND next_attempt_at <= :now " +
+            "ORDER BY next_attempt_at LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Long> lockDue(LocalDateTime now, int limit);
+    
+    // Running jobs whose instance stopped renewing the lease (rows from before leases have none)
+    @Query(value = "SELECT * FROM pdf_render_jobs WHERE status = 'RUNNING' " +
+            "AND (lease_expires_at IS NULL OR lease_expires_at < :now) " +
+            "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<PdfRenderJobEntity> lockExpired(LocalDateTime now, int limit);
+    
+    // Conditional, so a job is only ever started once per attempt
+    @Modifying
+    @Transactional
+    @Query("UPDATE PdfRenderJobEntity j SET j.status = :running, j.attempts = j.attempts + 1, " +
+            "j.leaseOwner = :owner, j.leaseExpiresAt = :leaseExpiresAt, j.updatedAt = :now " +
+            "WHERE j.id IN :ids AND j.status IN :expected")
+    int start(Collection<Long> ids, Collection<PdfRenderJobEntity.Status> expected, PdfRenderJobEntity.Status running,
+              String owner, LocalDateTime leaseExpiresAt, LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE PdfRenderJobEntity j SET j.leaseExpiresAt = :leaseExpiresAt WHERE j.id IN :ids AND j.leaseOwner = :owner")
+    int renew(Collection<Long> ids, String owner, LocalDateTime leaseExpiresAt);
+    
+    // Only while the owner still holds the lease: a job reclaimed from it is no longer its to finish
+    @Modifying
+    @Transactional
+    @Query("UPDATE PdfRenderJobEntity j SET j.status = :status, j.nextAttemptAt = :nextAttemptAt, " +
+            "j.lastError = :lastError, j.leaseOwner = null, j.leaseExpiresAt = null, j.updatedAt = :now " +
+            "WHERE j.id = :id AND j.leaseOwner = :owner")
+    int finish(Long id, String owner, PdfRenderJobEntity.Status status, LocalDateTime nextAttemptAt, String lastError, LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM PdfRenderJobEntity j WHERE j.bookId = :bookId")
+    int deleteByBookId(Long bookId);
+    
+    // Done jobs past the retention window, and jobs whose book is gone (e.g. deleted along with its user)
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM pdf_render_jobs WHERE (status = 'DONE' AND updated_at < :cutoff) " +
+            "OR NOT EXISTS (SELECT 1 FROM books b WHERE b.id = pdf_render_jobs.book_id)", nativeQuery = true)
+    int deleteFinishedBefore(LocalDateTime cutoff);
+    
+    // Books that still need a PDF but have no render job (created before jobs existed, or by a batch
+    // that was interrupted before it queued its PDFs)
+    @Query(value = "SELECT b.id FROM books b WHERE b.pdf_ready = false " +
+            "AND NOT EXISTS (SELECT 1 FROM pdf_render_jobs j WHERE j.book_id = b.id)", nativeQuery = true)
+    List<Long> findBookIdsWithoutPdfOrJob();
+}
@@ -13,6 +13,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -27,6 +28,7 @@ public class AdminService {
     private final UserRepository userRepository;
     private final BookRepository bookRepository;
     private final UserService userService;
+    private final PdfRenderJobService pdfRenderJobService;
     private final PasswordEncoder passwordEncoder;
     
     public List<UserProfileResponse> getAllUsers() {
@@ -173,9 +175,11 @@ public class AdminService {
                 .build();
     }
     
+    @Transactional
     public void deleteBook(Long bookId) {
         BookEntity book = bookRepository.findById(bookId)
                 .orElseThrow(() -> new RuntimeException("Book not found"));
+        pdfRenderJobService.deleteForBook(bookId);
         bookRepository.delete(book);
         log.info("Book deleted: {}", book.getId());
     }
@@ -0,0 +1,240 @@
+package com.giftai.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giftai.entity.GenerationJobEntity;
+import com.giftai.entity.PdfRenderJobEntity;
+import com.giftai.model.BatchJobResponse;
+import com.giftai.model.BookRequest;
+import com.giftai.repository.GenerationJobRepository;
+import com.giftai.repository.PdfRenderJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Generates many books (e.g. a whole class) as one batch. Every item is a row in
+ * {@code generation_jobs} tagged with the batch id, so {@link GenerationJobService} claims, leases
+ * and reclaims items like any other job: a batch survives the instance that accepted it, and its
+ * progress is read from the rows on any instance. At most {@code max-parallel} items of a batch
+ * run at a time, and the PDFs are handed to the renderer together once every item has finished.
+ * <p>
+ * Items that only differ in recipient name or giver share one story: the first item of such
+ * a group is claimed first and the others wait for it, then get the story from the generation
+ * cache instead of making their own AI call.
+ * <p>
+ * Cancelling a batch aborts the AI calls of its running items and drops the queued ones.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BatchGenerationService {
+    
+    private static final Set<GenerationJobService.Status> FINISHED = EnumSet.of(GenerationJobService.Status.COMPLETED,
+            GenerationJobService.Status.FAILED, GenerationJobService.Status.CANCELLED);
+    private static final Set<PdfRenderJobEntity.Status> RENDER_PENDING = EnumSet.of(PdfRenderJobEntity.Status.QUEUED,
+            PdfRenderJobEntity.Status.RUNNING, PdfRenderJobEntity.Status.FAILED);
+    
+    private final GenerationJobService generationJobService;
+    private final GenerationJobRepository jobRepository;
+    private final PdfRenderJobRepository renderJobRepository;
+    private final GenerationCacheService generationCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Value("${generation.batch.max-items:50}")
+    private int maxItems;
+    
+    @Value("${generation.batch.queue-capacity:200}")
+    private int queueCapacity;
+    
+    public int getMaxItems() {
+        return maxItems;
+    }
+    
+    /**
+     * Checks that a batch of {@code books} fits into the batch queue, before the caller charges
+     * for it; {@link #submit} checks again.
+     *
+     * @throws TaskRejectedException if the queued batch items and the new ones would exceed
+     *                               {@code generation.batch.queue-capacity}
+     */
+    public void checkCapacity(int books) {
+        long queued = jobRepository.countByStatusAndBatchIdIsNotNull(GenerationJobService.Status.QUEUED);
+        if (queued + books > queueCapacity) {
+            throw new TaskRejectedException("Batch queue is full (" + queued + " of " + queueCapacity + " books queued)");
+        }
+    }
+    
+    /**
+     * Queues a batch of generations for the given user in the given scheduler lane.
+     *
+     * @throws IllegalArgumentException if the batch has more than {@code max-items} books
+     * @throws TaskRejectedException if the batch queue has no room for the batch
+     */
+    public BatchJobResponse submit(List<BookRequest> requests, Long userId, GenerationScheduler.Lane lane) {
+        if (requests.size() > maxItems) {
+            throw new IllegalArgumentException("A batch can contain at most " + maxItems + " books");
+        }
+        try {
+            checkCapacity(requests.size());
+        } catch (TaskRejectedException e) {
+            log.warn("Batch queue full, rejecting batch of {} books for user: {}", requests.size(), userId);
+            throw e;
+        }
+        
+        String batchId = UUID.randomUUID().toString();
+        // Cache key -> id of the first item with that story
+        Map<String, String> leaders = new HashMap<>();
+        List<GenerationJobEntity> items = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            BookRequest request = requests.get(i);
+            String id = UUID.randomUUID().toString();
+            String leader = leaders.putIfAbsent(generationCache.cacheKey(request, userId), id);
+            items.add(GenerationJobEntity.builder()
+                    .id(id)
+                    .userId(userId)
+                    .lane(lane)
+                    .request(toJson(request))
+                    .status(GenerationJobService.Status.QUEUED)
+                    .batchId(batchId)
+                    .batchIndex(i)
+                    .afterJobId(leader)
+                    .renderQueued(false)
+                    .build());
+        }
+        // One transaction: the batch is queued whole or not at all
+        List<GenerationJobEntity> saved = jobRepository.saveAll(items);
+        
+        log.info("Queued batch {} with {} books ({} distinct stories) for user: {}",
+                batchId, requests.size(), leaders.size(), userId);
+        generationJobService.pollSoon();
+        return toResponse(batchId, saved);
+    }
+    
+    /**
+     * Returns the batch if it exists and belongs to the given user.
+     */
+    public BatchJobResponse getBatch(String batchId, Long userId) {
+        List<GenerationJobEntity> items = findBatch(batchId, userId);
+        return items.isEmpty() ? null : toResponse(batchId, items);
+    }
+    
+    /**
+     * Cancels the batch if it belongs to the given user and has not finished yet: running items
+     * have their AI call aborted (on whichever instance runs them), queued ones are not started,
+     * and items already done are kept.
+     *
+     * @return the batch after the cancel request, or null if there is no such batch
+     */
+    public BatchJobResponse cancel(String batchId, Long userId) {
+        List<GenerationJobEntity> items = findBatch(batchId, userId);
+        if (items.isEmpty()) {
+            return null;
+        }
+        List<GenerationJobEntity> unfinished = items.stream()
+                .filter(item -> !FINISHED.contains(item.getStatus()))
+                .collect(Collectors.toList());
+        unfinished.forEach(generationJobService::cancel);
+        if (!unfinished.isEmpty()) {
+            log.info("Batch {} cancelled by user: {} ({} books not finished)", batchId, userId, unfinished.size());
+        }
+        return getBatch(batchId, userId);
+    }
+    
+    private List<GenerationJobEntity> findBatch(String batchId, Long userId) {
+        List<GenerationJobEntity> items = jobRepository.findByBatchIdOrderByBatchIndex(batchId);
+        if (items.isEmpty() || !items.get(0).getUserId().equals(userId)) {
+            return List.of();
+        }
+        return items;
+    }
+    
+    private BatchJobResponse toResponse(String batchId, List<GenerationJobEntity> items) {
+        List<BatchJobResponse.Item> views = items.stream()
+                .map(item -> BatchJobResponse.Item.builder()
+                        .index(item.getBatchIndex())
+                        .name(nameOf(item))
+                        .status(item.getStatus().name())
+                        .bookId(item.getBookId())
+                        .error(item.getError())
+                        .build())
+                .collect(Collectors.toList());
+        boolean finished = items.stream().allMatch(item -> FINISHED.contains(item.getStatus()));
+        return BatchJobResponse.builder()
+                .batchId(batchId)
+                .status(statusOf(items, finished).name())
+                .total(items.size())
+                .completed(count(items, GenerationJobService.Status.COMPLETED))
+                .failed(count(items, GenerationJobService.Status.FAILED))
+                .cancelled(count(items, GenerationJobService.Status.CANCELLED))
+                .pdfsReady(finished && pdfsReady(items))
+                .items(views)
+                .createdAt(items.stream().map(GenerationJobEntity::getCreatedAt).min(Comparator.naturalOrder()).orElse(null))
+                .updatedAt(items.stream().map(GenerationJobEntity::getUpdatedAt).max(Comparator.naturalOrder()).orElse(null))
+                .build();
+    }
+    
+    private static GenerationJobService.Status statusOf(List<GenerationJobEntity> items, boolean finished) {
+        if (!finished) {
+            boolean started = items.stream().anyMatch(item -> item.getStatus() != GenerationJobService.Status.QUEUED);
+            return started ? GenerationJobService.Status.RUNNING : GenerationJobService.Status.QUEUED;
+        }
+        // Batch items have no deadline, so a cancelled item means the batch was cancelled
+        if (count(items, GenerationJobService.Status.CANCELLED) > 0) {
+            return GenerationJobService.Status.CANCELLED;
+        }
+        return count(items, GenerationJobService.Status.COMPLETED) > 0
+                ? GenerationJobService.Status.COMPLETED : GenerationJobService.Status.FAILED;
+    }
+    
+    /**
+     * True once the PDFs of the finished batch have been handed to the renderer and every render
+     * is done or has given up.
+     */
+    private boolean pdfsReady(List<GenerationJobEntity> items) {
+        List<GenerationJobEntity> completed = items.stream()
+                .filter(item -> item.getStatus() == GenerationJobService.Status.COMPLETED && item.getBookId() != null)
+                .collect(Collectors.toList());
+        if (completed.isEmpty()) {
+            return true;
+        }
+        if (completed.stream().anyMatch(item -> !item.getRenderQueued())) {
+            return false;
+        }
+        List<Long> bookIds = completed.stream().map(GenerationJobEntity::getBookId).collect(Collectors.toList());
+        return renderJobRepository.countByBookIdInAndStatusIn(bookIds, RENDER_PENDING) == 0;
+    }
+    
+    private static int count(List<GenerationJobEntity> items, GenerationJobService.Status status) {
+        return (int) items.stream().filter(item -> item.getStatus() == status).count();
+    }
+    
+    private String nameOf(GenerationJobEntity item) {
+        try {
+            return objectMapper.readValue(item.getRequest(), BookRequest.class).getName();
+        } catch (JsonProcessingException e) {
+            log.warn("Batch item {} has an unreadable request: {}", item.getId(), e.getMessage());
+            return null;
+        }
+    }
+    
+    private String toJson(BookRequest request) {
+        try {
+            return objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize book request", e);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.giftai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giftai.entity.BookEntity;
+import com.giftai.model.BookDocument;
+import com.giftai.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the AI output of a book into a {@link BookDocument} and stores it (as JSON) with the
+ * book. Generated text looks like
+ * <pre>
+ * A Special Gift for Alice       &lt;- title
+ *
+ * From: Grandma                  &lt;- dedication
+ *
+ * ━━━━━━━━━━                     &lt;- separator
+ *
+ * Chapter 1: The Beginning       &lt;- chapter heading
+ *
+ * Paragraph...
+ * </pre>
+ * and is parsed in a single pass over its lines.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BookDocumentService {
+    
+    private static final Pattern CHAPTER_HEADING =
+            Pattern.compile("(?i)^(Chapter|Bölüm|Kapitel|Chapitre|Capítulo|Capitolo|Глава|章|章|الفصل)\\s+\\d+.*");
+    private static final Pattern SECTION_HEADING = Pattern.compile("^[A-Z][^.!?]*[.!?]$");
+    private static final String SEPARATOR_CHARS = "━─—-=_*~";
+    
+    private final BookRepository bookRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    /**
+     * The stored document of the book, or one parsed from its content if none is stored yet.
+     */
+    public BookDocument documentOf(BookEntity book) {
+        if (book.getDocument() != null) {
+            try {
+                return objectMapper.readValue(book.getDocument(), BookDocument.class);
+            } catch (Exception e) {
+                log.error("Error deserializing document of book {}: {}", book.getId(), e.getMessage());
+            }
+        }
+        return parse(book.getContent());
+    }
+    
+    public String toJson(BookDocument document) {
+        try {
+            return objectMapper.writeValueAsString(document);
+        } catch (Exception e) {
+            log.error("Error serializing book document: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Stores documents for books created before documents were stored.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        int updated = 0;
+        long lastId = 0;
+        List<BookEntity> books;
+        try {
+            while (!(books = bookRepository.findTop100ByDocumentIsNullAndIdGreaterThanOrderByIdAsc(lastId)).isEmpty()) {
+                for (BookEntity book : books) {
+                    lastId = book.getId();
+                    book.setDocument(toJson(parse(book.getContent())));
+                }
+                bookRepository.saveAll(books);
+                updated += books.size();
+            }
+        } catch (Exception e) {
+            log.error("Error storing documents of existing books: {}", e.getMessage(), e);
+        }
+        if (updated > 0) {
+            log.info("Stored parsed documents for {} existing books", updated);
+        }
+    }
+    
+    /**
+     * Splits the text into blocks at blank lines and classifies each block as it is completed.
+     * Blocks before the separator line are the title and the dedication; if there is no separator,
+     * the whole text is story.
+     */
+    public BookDocument parse(String content) {
+        Parser parser = new Parser();
+        StringBuilder block = new StringBuilder();
+        int start = 0;
+        int length = content != null ? content.length() : 0;
+        while (start <= length) {
+            int end = start < length ? content.indexOf('\n', start) : -1;
+            if (end < 0) {
+                end = length;
+            }
+            String line = content != null ? content.substring(start, end).trim() : "";
+            if (line.isEmpty()) {
+                parser.accept(block);
+            } else {
+                if (block.length() > 0) {
+                    block.append('\n');
+                }
+                block.append(line);
+            }
+            start = end + 1;
+        }
+        parser.accept(block);
+        return parser.finish();
+    }
+    
+    private static boolean isSeparator(String text) {
+        if (text.length() < 3) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (SEPARATOR_CHARS.indexOf(text.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static class Parser {
+        private final List<String> front = new ArrayList<>();
+        private final List<BookDocument.Chapter> chapters = new ArrayList<>();
+        private boolean inFront = true;
+        private String title;
+        private String dedication;
+        private BookDocument.Chapter chapter;
+        
+        void accept(StringBuilder block) {
+            if (block.length() == 0) {
+                return;
+            }
+            String text = block.toString();
+            block.setLength(0);
+            
+            if (inFront) {
+                if (isSeparator(text)) {
+                    inFront = false;
+                    if (!front.isEmpty()) {
+                        title = front.get(0).replace('\n', ' ');
+                        dedication = front.size() > 1 ? String.join("\n", front.subList(1, front.size())) : null;
+                    }
+                    front.clear();
+                    return;
+                }
+                if (!CHAPTER_HEADING.matcher(text).matches()) {
+                    front.add(text);
+                    return;
+                }
+                // A chapter before any separator: there is no title block
+                inFront = false;
+                front.forEach(this::story);
+                front.clear();
+            }
+            story(text);
+        }
+        
+        private void story(String text) {
+            if (CHAPTER_HEADING.matcher(text).matches()) {
+                chapter = newChapter(text.replace('\n', ' '));
+            } else if (SECTION_HEADING.matcher(text).matches() && text.length() < 100) {
+                // Might be a title or heading
+                currentChapter().getBlocks().add(new BookDocument.Block(BookDocument.Block.Type.SECTION_TITLE, text.replace('\n', ' ')));
+            } else if (!isSeparator(text)) {
+                currentChapter().getBlocks().add(new BookDocument.Block(BookDocument.Block.Type.PARAGRAPH, text.replace('\n', ' ')));
+            }
+        }
+        
+        private BookDocument.Chapter currentChapter() {
+            if (chapter == null) {
+                chapter = newChapter(null);
+            }
+            return chapter;
+        }
+        
+        private BookDocument.Chapter newChapter(String chapterTitle) {
+            BookDocument.Chapter next = new BookDocument.Chapter("chapter-" + (chapters.size() + 1), chapterTitle, new ArrayList<>());
+            chapters.add(next);
+            return next;
+        }
+        
+        BookDocument finish() {
+            if (inFront) {
+                front.forEach(this::story);
+            }
+            return new BookDocument(title, dedication, chapters);
+        }
+    }
+}
@@ -4,20 +4,42 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.giftai.entity.BookEntity;
 import com.giftai.entity.UserEntity;
+import com.giftai.model.BookChapterResponse;
+import com.giftai.model.BookChaptersResponse;
+import com.giftai.model.BookDocument;
 import com.giftai.model.BookRequest;
 import com.giftai.model.BookResponse;
 import com.giftai.model.CharacterInfo;
 import com.giftai.provider.BookProvider;
+import com.giftai.provider.CancellationToken;
+import com.giftai.provider.GenerationCancelledException;
 import com.giftai.repository.BookRepository;
 import com.giftai.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -28,11 +50,128 @@ public class BookService {
     private final BookRepository bookRepository;
     private final UserRepository userRepository;
     private final BookProvider bookProvider;
-    private final PdfGenerationService pdfGenerationService;
+    private final PdfRenderJobService pdfRenderJobService;
+    private final PdfStorage pdfStorage;
+    private final BookDocumentService bookDocumentService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Generations currently running, keyed by user id + request fingerprint
+    private final ConcurrentMap<String, Flight> inFlightGenerations = new ConcurrentHashMap<>();
     
-    @Transactional
+    static final int PREVIEW_LENGTH = 200;
+    
+    /**
+     * Generates and persists a book. Deliberately not transactional: the AI call can take
+     * minutes and must not hold a pooled DB connection, so only the final insert runs
+     * inside a (short) transaction.
+     */
     public BookResponse generateBook(BookRequest request, Long userId) {
+        return generateBook(request, userId, null);
+    }
+    
+    /**
+     * Same as {@link #generateBook(BookRequest, Long)}, but streams the AI output to
+     * {@code onChunk} while it is being generated.
+     * <p>
+     * Identical concurrent requests from the same user (double-clicks, client retries) are
+     * coalesced: only the first one generates, the others wait for it (streaming its chunks, if it
+     * streams) and get the same book.
+     */
+    public BookResponse generateBook(BookRequest request, Long userId, Consumer<String> onChunk) {
+        return generateBook(request, userId, onChunk, true);
+    }
+    
+    /**
+     * Same as {@link #generateBook(BookRequest, Long, Consumer)}. With {@code renderPdf} false
+     * the PDF is not queued; the caller hands the book to {@link PdfGenerationService} itself
+     * (batch generation renders all PDFs of a batch together).
+     */
+    public BookResponse generateBook(BookRequest request, Long userId, Consumer<String> onChunk, boolean renderPdf) {
+        return generateBook(request, userId, onChunk, renderPdf, CancellationToken.NONE);
+    }
+    
+    /**
+     * Same as {@link #generateBook(BookRequest, Long, Consumer, boolean)}, but abandoned as soon
+     * as {@code cancellation} is cancelled (client gone, deadline passed): the AI call is
+     * aborted, and a book that finished after that is neither saved nor rendered.
+     *
+     * @throws GenerationCancelledException if the generation was cancelled
+     */
+    public BookResponse generateBook(BookRequest request, Long userId, Consumer<String> onChunk, boolean renderPdf,
+                                     CancellationToken cancellation) {
+        return generateBook(request, userId, onChunk, renderPdf, cancellation, null);
+    }
+    
+    /**
+     * Same as {@link #generateBook(BookRequest, Long, Consumer, boolean, CancellationToken)}, and
+     * runs {@code onSaved} with the new book id inside the transaction that saves the book, so what
+     * it records commits or rolls back together with the book; throwing from it drops the book. A
+     * caller coalesced onto an identical generation runs it in a transaction of its own once the
+     * other caller's book is saved.
+     */
+    public BookResponse generateBook(BookRequest request, Long userId, Consumer<String> onChunk, boolean renderPdf,
+                                     CancellationToken cancellation, Consumer<Long> onSaved) {
+        String flightKey = userId + ":" + fingerprint(request);
+        Flight flight = new Flight();
+        Flight existing = inFlightGenerations.putIfAbsent(flightKey, flight);
+        
+        if (existing != null) {
+            meterRegistry.counter("generation.requests.coalesced").increment();
+            log.info("Identical generation already running for user: {}, waiting for its result", userId);
+            return follow(existing, request, userId, onChunk, renderPdf, cancellation, onSaved);
+        }
+        
+        try {
+            BookResponse response = createBook(request, userId, flight.broadcast(onChunk), renderPdf, cancellation, onSaved);
+            flight.result.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightGenerations.remove(flightKey, flight);
+        }
+    }
+    
+    /**
+     * Waits for an identical generation that is already running, receiving its chunks, until it
+     * finishes or this caller's own {@code cancellation} fires, whichever comes first.
+     */
+    private BookResponse follow(Flight leader, BookRequest request, Long userId, Consumer<String> onChunk,
+                                boolean renderPdf, CancellationToken cancellation, Consumer<Long> onSaved) {
+        // A copy, so giving up on it leaves the leader's result alone
+        CompletableFuture<BookResponse> result = leader.result.thenApply(Function.identity());
+        BookResponse response;
+        try (CancellationToken.Registration cancelled = cancellation.onCancel(() ->
+                     result.completeExceptionally(new GenerationCancelledException(cancellation.getReason(), null)));
+             Follower follower = leader.follow(onChunk)) {
+            if (follower != null) {
+                // Chunks are passed on here, on this caller's thread, so a slow client only holds up itself
+                result.whenComplete((book, error) -> follower.end());
+                follower.deliverUntilEnd(onChunk);
+            }
+            response = result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof GenerationCancelledException) {
+                if (cancellation.isCancelled()) {
+                    recordCancelled(cancellation.getReason(), "queued");
+                    cancellation.throwIfCancelled();
+                }
+                // Only the other caller gave up; this one still wants the book
+                return generateBook(request, userId, onChunk, renderPdf, cancellation, onSaved);
+            }
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        if (onSaved != null) {
+            transactionTemplate.executeWithoutResult(status -> onSaved.accept(response.getBookId()));
+        }
+        return response;
+    }
+    
+    private BookResponse createBook(BookRequest request, Long userId, Consumer<String> onChunk, boolean renderPdf,
+                                    CancellationToken cancellation, Consumer<Long> onSaved) {
+        checkCancelled(cancellation, "queued");
         log.info("Generating book for: {} by {} for user: {}", request.getName(), request.getGiver(), userId);
         
         // CRITICAL: Load user entity to ensure it's available for authorId
@@ -41,7 +180,15 @@ public class BookService {
         
         log.info("User loaded - ID: {}, Email: {}, Name: {}", user.getId(), user.getEmail(), user.getName());
         
-        String content = bookProvider.generateBook(request);
+        String content;
+        try {
+            content = bookProvider.generateBook(request, userId, onChunk, cancellation);
+        } catch (GenerationCancelledException e) {
+            recordCancelled(e.getReason(), "generating");
+            throw e;
+        }
+        // Generated, but nobody is waiting for it anymore: skip saving and the PDF render
+        checkCancelled(cancellation, "rendering");
         
         // Serialize characters to JSON
         String charactersJson = null;
@@ -53,7 +200,9 @@ public class BookService {
             }
         }
         
-        BookEntity entity = BookEntity.builder()
+        BookDocument document = bookDocumentService.parse(content);
+        
+        BookEntity newEntity = BookEntity.builder()
                 .name(request.getName())
                 .age(request.getAge())
                 .gender(request.getGender())
@@ -65,12 +214,25 @@ public class BookService {
                 .appearance(request.getAppearance())
                 .characters(charactersJson)
                 .content(content)
+                .document(bookDocumentService.toJson(document))
                 .pdfReady(false)
                 .isPublic(request.getIsPublic() != null ? request.getIsPublic() : false)
                 .user(user) // CRITICAL: Set user entity - this will be used for authorId
                 .build();
         
-        entity = bookRepository.save(entity);
+        String language = request.getLanguage() != null ? request.getLanguage() : "English";
+        Long[] renderJobId = new Long[1];
+        BookEntity entity = transactionTemplate.execute(status -> {
+            BookEntity saved = bookRepository.save(newEntity);
+            // Queued with the book, so the PDF is rendered even if we crash right after the commit
+            if (renderPdf) {
+                renderJobId[0] = pdfRenderJobService.enqueue(saved.getId(), language);
+            }
+            if (onSaved != null) {
+                onSaved.accept(saved.getId());
+            }
+            return saved;
+        });
         
         // Verify user is set correctly
         if (entity.getUser() == null) {
@@ -80,8 +242,9 @@ public class BookService {
                     entity.getId(), userId, entity.getUser().getId());
         }
         
-        pdfGenerationService.generatePdfAsync(entity.getId(), content, request.getName(), 
-                request.getLanguage() != null ? request.getLanguage() : "English");
+        if (renderPdf) {
+            pdfRenderJobService.dispatch(renderJobId[0], document);
+        }
         
         BookResponse response = toResponse(entity);
         
@@ -102,6 +265,7 @@ public class BookService {
                     .appearance(response.getAppearance())
                     .characters(response.getCharacters())
                     .content(response.getContent())
+                    .document(response.getDocument())
                     .pdfPath(response.getPdfPath())
                     .pdfReady(response.getPdfReady())
                     .isPublic(response.getIsPublic())
@@ -117,14 +281,46 @@ public class BookService {
         return response;
     }
     
+    private void checkCancelled(CancellationToken cancellation, String stage) {
+        if (cancellation.isCancelled()) {
+            recordCancelled(cancellation.getReason(), stage);
+            cancellation.throwIfCancelled();
+        }
+    }
+    
+    /**
+     * Counts abandoned generations by the stage they were stopped in, i.e. the work that was
+     * saved: "queued" skipped the AI call entirely, "generating" aborted it midway, and every
+     * stage skipped the PDF render.
+     */
+    private void recordCancelled(String reason, String stage) {
+        meterRegistry.counter("generation.cancelled", "reason", reason, "stage", stage).increment();
+        log.info("Generation cancelled ({}) while {}", reason, stage);
+    }
+    
+    /**
+     * The user's books as summaries: a short {@code preview} instead of {@code content} and
+     * {@code document}, which are only returned for a single book.
+     */
     public List<BookResponse> getUserBooks(Long userId) {
         log.info("Retrieving books for user: {}", userId);
         return bookRepository.findByUserIdOrderByCreatedAtDesc(userId).stream()
-                .map(this::toResponse)
+                .map(this::toSummary)
                 .collect(Collectors.toList());
     }
     
     public BookResponse getBookById(Long id) {
+        return getBook(id, true);
+    }
+    
+    /**
+     * Same as {@link #getBookById(Long)} without the book's text ({@code content} and {@code document}).
+     */
+    public BookResponse getBookSummaryById(Long id) {
+        return getBook(id, false);
+    }
+    
+    private BookResponse getBook(Long id, boolean includeContent) {
         log.info("Retrieving book with ID: {}", id);
         BookEntity entity = bookRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Book not found with id: " + id));
@@ -137,7 +333,7 @@ public class BookService {
             log.warn("Book {} has no user assigned!", id);
         }
         
-        BookResponse response = toResponse(entity);
+        BookResponse response = toResponse(entity, includeContent);
         
         // Ensure authorId is set correctly - CRITICAL for access control
         if (response.getAuthorId() == null) {
@@ -156,6 +352,7 @@ public class BookService {
                         .appearance(response.getAppearance())
                         .characters(response.getCharacters())
                         .content(response.getContent())
+                        .document(response.getDocument())
                         .pdfPath(response.getPdfPath())
                         .pdfReady(response.getPdfReady())
                         .isPublic(response.getIsPublic())
@@ -186,10 +383,13 @@ public class BookService {
         return toResponse(entity);
     }
     
+    /**
+     * Public books as summaries, like {@link #getUserBooks(Long)}.
+     */
     public List<BookResponse> getPublicBooks() {
         log.info("Retrieving all public books");
         return bookRepository.findByIsPublicTrueOrderByCreatedAtDesc().stream()
-                .map(this::toResponse)
+                .map(this::toSummary)
                 .collect(Collectors.toList());
     }
     
@@ -236,24 +436,177 @@ public class BookService {
         BookEntity entity = bookRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Book not found with id: " + id));
         
-        // Delete PDF file if it exists
-        if (entity.getPdfPath() != null && !entity.getPdfPath().isEmpty()) {
-            try {
-                java.io.File pdfFile = new java.io.File(entity.getPdfPath());
-                if (pdfFile.exists()) {
-                    pdfFile.delete();
-                    log.info("Deleted PDF file: {}", entity.getPdfPath());
+        pdfRenderJobService.deleteForBook(id);
+        bookRepository.delete(entity);
+        String pdfKey = entity.getPdfPath();
+        if (pdfKey != null && !pdfKey.isEmpty()) {
+            // Only once the book is gone for good, and the identical PDF is not some other book's
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deletePdfIfUnused(pdfKey);
                 }
-            } catch (Exception e) {
-                log.warn("Could not delete PDF file: {}", e.getMessage());
-            }
+            });
         }
-        
-        bookRepository.delete(entity);
         log.info("Book {} deleted successfully", id);
     }
     
+    /**
+     * Deletes a PDF no book refers to anymore. PDFs are stored once per content, so the key may
+     * be shared with other books, including one whose render just came up with the same PDF.
+     */
+    private void deletePdfIfUnused(String pdfKey) {
+        try {
+            if (bookRepository.existsByPdfPath(pdfKey)) {
+                log.info("PDF {} is still used by another book, keeping it", pdfKey);
+                return;
+            }
+            pdfStorage.delete(pdfKey);
+            log.info("Deleted PDF: {}", pdfKey);
+        } catch (Exception e) {
+            log.warn("Could not delete PDF file: {}", e.getMessage());
+        }
+    }
+    
+    String fingerprint(BookRequest request) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(request);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not fingerprint book request", e);
+        }
+    }
+    
+    /**
+     * Table of contents of a book that is public or owned by the given user (null if anonymous).
+     *
+     * @return null if the book does not exist
+     * @throws AccessDeniedException if the book is private and not owned by the user
+     */
+    public BookChaptersResponse getChapters(Long id, Long userId) {
+        BookEntity entity = readableBook(id, userId);
+        if (entity == null) {
+            return null;
+        }
+        BookDocument document = bookDocumentService.documentOf(entity);
+        List<BookChaptersResponse.Chapter> chapters = new ArrayList<>();
+        for (int i = 0; i < document.getChapters().size(); i++) {
+            BookDocument.Chapter chapter = document.getChapters().get(i);
+            int paragraphs = 0;
+            int words = 0;
+            for (BookDocument.Block block : chapter.getBlocks()) {
+                if (block.getType() == BookDocument.Block.Type.PARAGRAPH) {
+                    paragraphs++;
+                }
+                words += countWords(block.getText());
+            }
+            chapters.add(BookChaptersResponse.Chapter.builder()
+                    .id(chapter.getId())
+                    .index(i + 1)
+                    .title(chapter.getTitle())
+                    .paragraphs(paragraphs)
+                    .words(words)
+                    .build());
+        }
+        return BookChaptersResponse.builder()
+                .bookId(entity.getId())
+                .title(document.getTitle())
+                .dedication(document.getDedication())
+                .isPublic(entity.getIsPublic())
+                .version(versionOf(entity))
+                .chapters(chapters)
+                .build();
+    }
+    
+    /**
+     * One chapter of a book that is public or owned by the given user (null if anonymous).
+     *
+     * @return null if the book or the chapter does not exist
+     * @throws AccessDeniedException if the book is private and not owned by the user
+     */
+    public BookChapterResponse getChapter(Long id, String chapterId, Long userId) {
+        BookEntity entity = readableBook(id, userId);
+        if (entity == null) {
+            return null;
+        }
+        List<BookDocument.Chapter> chapters = bookDocumentService.documentOf(entity).getChapters();
+        for (int i = 0; i < chapters.size(); i++) {
+            BookDocument.Chapter chapter = chapters.get(i);
+            if (chapter.getId().equals(chapterId)) {
+                return BookChapterResponse.builder()
+                        .bookId(entity.getId())
+                        .id(chapter.getId())
+                        .index(i + 1)
+                        .totalChapters(chapters.size())
+                        .title(chapter.getTitle())
+                        .blocks(chapter.getBlocks())
+                        .previousId(i > 0 ? chapters.get(i - 1).getId() : null)
+                        .nextId(i + 1 < chapters.size() ? chapters.get(i + 1).getId() : null)
+                        .isPublic(entity.getIsPublic())
+                        .version(versionOf(entity))
+                        .build();
+            }
+        }
+        return null;
+    }
+    
+    private BookEntity readableBook(Long id, Long userId) {
+        BookEntity entity = bookRepository.findById(id).orElse(null);
+        if (entity == null) {
+            return null;
+        }
+        if (!Boolean.TRUE.equals(entity.getIsPublic())
+                && (userId == null || entity.getUser() == null || !entity.getUser().getId().equals(userId))) {
+            throw new AccessDeniedException("This book is private");
+        }
+        return entity;
+    }
+    
+    /**
+     * Hash of the book's stored text, for ETags.
+     */
+    private String versionOf(BookEntity entity) {
+        String text = entity.getDocument() != null ? entity.getDocument() : entity.getContent();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not hash book text", e);
+        }
+    }
+    
+    private static int countWords(String text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean whitespace = Character.isWhitespace(text.charAt(i));
+            if (!whitespace && !inWord) {
+                words++;
+            }
+            inWord = !whitespace;
+        }
+        return words;
+    }
+    
     private BookResponse toResponse(BookEntity entity) {
+        return toResponse(entity, true);
+    }
+    
+    private BookResponse toSummary(BookEntity entity) {
+        BookResponse response = toResponse(entity, false);
+        response.setPreview(previewOf(entity.getContent()));
+        response.setPreviewTruncated(entity.getContent() != null && entity.getContent().length() > PREVIEW_LENGTH);
+        return response;
+    }
+    
+    static String previewOf(String content) {
+        if (content == null) {
+            return "";
+        }
+        return content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+    }
+    
+    private BookResponse toResponse(BookEntity entity, boolean includeContent) {
         // Deserialize characters from JSON
         List<CharacterInfo> characters = new ArrayList<>();
         if (entity.getCharacters() != null && !entity.getCharacters().trim().isEmpty()) {
@@ -288,7 +641,8 @@ public class BookService {
                 .giver(entity.getGiver())
                 .appearance(entity.getAppearance())
                 .characters(characters.isEmpty() ? null : characters)
-                .content(entity.getContent())
+                .content(includeContent ? entity.getContent() : null)
+                .document(includeContent ? bookDocumentService.documentOf(entity) : null)
                 .pdfPath(entity.getPdfPath())
                 .pdfReady(entity.getPdfReady())
                 .isPublic(entity.getIsPublic())
@@ -299,5 +653,133 @@ public class BookService {
                 .createdAt(entity.getCreatedAt())
                 .build();
     }
+    
+    /**
+     * A running generation that identical requests wait for. Chunks the leader streams are kept,
+     * so a request that joins late first gets the text so far and then every further chunk.
+     * The leader only queues chunks for its followers; each follower passes them on itself.
+     */
+    private static final class Flight {
+        
+        final CompletableFuture<BookResponse> result = new CompletableFuture<>();
+        // Chunks are queued under the lock so a late joiner never sees them out of order
+        private final ReentrantLock lock = new ReentrantLock();
+        private final StringBuilder streamed = new StringBuilder();
+        private final List<Follower> followers = new ArrayList<>();
+        
+        /**
+         * The leader's chunk consumer: passes every chunk on to {@code own} and queues it for the
+         * followers. Null if the leader does not stream, so the provider is not made to stream either.
+         */
+        Consumer<String> broadcast(Consumer<String> own) {
+            if (own == null) {
+                return null;
+            }
+            return chunk -> {
+                lock.lock();
+                try {
+                    streamed.append(chunk);
+                    // A follower too far behind (client stalled) is dropped instead of buffering without end
+                    followers.removeIf(follower -> !follower.offer(chunk));
+                } finally {
+                    lock.unlock();
+                }
+                own.accept(chunk);
+            };
+        }
+        
+        /**
+         * Starts queueing chunks for a new follower, beginning with the text so far; null if the
+         * follower does not stream. Closing the follower stops the queueing.
+         */
+        Follower follow(Consumer<String> onChunk) {
+            if (onChunk == null) {
+                return null;
+            }
+            Follower follower = new Follower(this);
+            lock.lock();
+            try {
+                if (!streamed.isEmpty()) {
+                    follower.offer(streamed.toString());
+                }
+                followers.add(follower);
+            } finally {
+                lock.unlock();
+            }
+            return follower;
+        }
+        
+        void unfollow(Follower follower) {
+            lock.lock();
+            try {
+                followers.remove(follower);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Chunks of a flight waiting to be passed on to one follower, bounded so a follower that
+     * stops reading cannot make the leader buffer the whole story for it.
+     */
+    private static final class Follower implements AutoCloseable {
+        
+        private static final int MAX_PENDING_CHUNKS = 1024;
+        // Queued once the flight's result is in (or the follower gave up on it)
+        private static final String END = new String("end");
+        
+        private final Flight flight;
+        private final BlockingQueue<String> chunks = new LinkedBlockingQueue<>();
+        private volatile boolean overflowed;
+        
+        Follower(Flight flight) {
+            this.flight = flight;
+        }
+        
+        /**
+         * Queues a chunk; false if the follower is too far behind, after which it gets no more.
+         */
+        boolean offer(String chunk) {
+            if (chunks.size() >= MAX_PENDING_CHUNKS) {
+                overflowed = true;
+                return false;
+            }
+            return chunks.add(chunk);
+        }
+        
+        void end() {
+            chunks.add(END);
+        }
+        
+        /**
+         * Passes the queued chunks on to {@code onChunk} until {@link #end()}.
+         */
+        void deliverUntilEnd(Consumer<String> onChunk) {
+            try {
+                for (String chunk = chunks.take(); chunk != END; chunk = chunks.take()) {
+                    deliver(onChunk, chunk);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (overflowed) {
+                log.warn("Coalesced request fell more than {} chunks behind, its stream was cut short", MAX_PENDING_CHUNKS);
+            }
+        }
+        
+        @Override
+        public void close() {
+            flight.unfollow(this);
+        }
+        
+        // A follower that cannot take chunks (client gone) must not break the request
+        private static void deliver(Consumer<String> follower, String chunk) {
+            try {
+                follower.accept(chunk);
+            } catch (RuntimeException e) {
+                log.debug("Could not pass chunk to coalesced request: {}", e.getMessage());
+            }
+        }
+    }
 }
-
@@ -0,0 +1,70 @@
+package com.giftai.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * This instance among the instances sharing the database. A job claimed from a job table is leased
+ * to {@link #getId()}: the lease is renewed every heartbeat while the job is worked on and runs out
+ * when the instance dies, after which any instance may claim the job again. Lease times come from
+ * each instance's clock, so the clocks must be kept in sync (NTP) to well within the lease.
+ */
+@Slf4j
+@Component
+public class ClusterNode {
+    
+    @Value("${cluster.node-id:}")
+    private String nodeId;
+    
+    @Value("${cluster.lease-seconds:60}")
+    private long leaseSeconds;
+    
+    @Value("${cluster.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+    
+    private String id;
+    
+    @PostConstruct
+    public void init() {
+        // A fresh suffix per start, so jobs leased by the previous run of this host are not mistaken for ours
+        id = nodeId.isBlank() ? hostName() + "-" + UUID.randomUUID().toString().substring(0, 8) : nodeId;
+        if (id.length() > 100) {
+            id = id.substring(0, 100);
+        }
+        if (heartbeatSeconds * 2 > leaseSeconds) {
+            log.warn("cluster.heartbeat-seconds ({}) should be well below cluster.lease-seconds ({}), leases may run out while jobs are running",
+                    heartbeatSeconds, leaseSeconds);
+        }
+        log.info("Cluster node {}: lease {}s, heartbeat every {}s", id, leaseSeconds, heartbeatSeconds);
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public long getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+    
+    /**
+     * When a lease taken or renewed now runs out.
+     */
+    public LocalDateTime leaseExpiry() {
+        return LocalDateTime.now().plusSeconds(leaseSeconds);
+    }
+    
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "node";
+        }
+    }
+}
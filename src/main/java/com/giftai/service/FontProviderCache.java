@@ -0,0 +1,207 @@
+package com.giftai.service;
+
+import com.itextpdf.html2pdf.ConverterProperties;
+import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.layout.font.FontCharacteristics;
+import com.itextpdf.layout.font.FontInfo;
+import com.itextpdf.layout.font.FontProvider;
+import com.itextpdf.layout.font.FontSelector;
+import com.itextpdf.layout.font.FontSet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Fonts for PDF rendering, scanned once instead of per render. The standard, shipped and system
+ * fonts are registered into one {@link FontSet} that is never modified afterwards and shared by
+ * all renders; for each script the fonts that have glyphs for it are worked out once as well.
+ * Every render gets its own cheap {@link FontProvider} over the shared set that only considers
+ * the fonts for the scripts used in the text (all fonts if the text uses another script).
+ * The scan runs when the application is ready so the first PDF after a deploy is not slow.
+ */
+@Slf4j
+@Service
+public class FontProviderCache {
+    
+    private static final String DEFAULT_FONT_FAMILY = "Times";
+    
+    private enum Script {
+        LATIN('A', 'a'),
+        CYRILLIC('Д', 'ж'),
+        RTL('ب', 'א'),  // Arabic, Hebrew
+        CJK('中', 'あ', '한');
+        
+        // A font belongs to the script if it has a glyph for any of these
+        private final char[] samples;
+        
+        Script(char... samples) {
+            this.samples = samples;
+        }
+    }
+    
+    private final Map<Set<Script>, Set<FontInfo>> fontsByScripts = new ConcurrentHashMap<>();
+    // Not synchronized: a render waiting out the scan on a virtual thread must not pin its carrier
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private volatile FontSet fontSet;
+    private volatile Map<Script, Set<FontInfo>> fontsByScript;
+    
+    @Value("${pdf.fonts.warm-up:true}")
+    private boolean warmUp;
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (warmUp) {
+            load();
+        }
+    }
+    
+    /**
+     * Converter properties for rendering the given text, with a font provider limited to the
+     * fonts for the scripts in it.
+     */
+    public ConverterProperties converterProperties(String text) {
+        ConverterProperties properties = new ConverterProperties();
+        properties.setFontProvider(fontProvider(text));
+        return properties;
+    }
+    
+    /**
+     * A font provider for one document with the given text, limited to the fonts for the
+     * scripts in it.
+     */
+    public FontProvider fontProvider(String text) {
+        load();
+        return new ScriptFontProvider(fontSet, fontsFor(scriptsOf(text)));
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", fontSet != null);
+        if (fontSet != null) {
+            stats.put("fonts", fontSet.size());
+            fontsByScript.forEach((script, fonts) -> stats.put(script.name().toLowerCase(Locale.ROOT) + "Fonts", fonts.size()));
+        }
+        return stats;
+    }
+    
+    /**
+     * Scans the fonts and works out which scripts each one covers; runs once.
+     */
+    private void load() {
+        if (fontSet != null) {
+            return;
+        }
+        loadLock.lock();
+        try {
+            if (fontSet != null) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            FontProvider scanner = new DefaultFontProvider(true, true, true);
+            Map<Script, Set<FontInfo>> byScript = new EnumMap<>(Script.class);
+            for (Script script : Script.values()) {
+                byScript.put(script, new HashSet<>());
+            }
+            for (FontInfo font : scanner.getFontSet().getFonts()) {
+                try {
+                    // Also parses the font program into iText's shared font cache
+                    PdfFont pdfFont = scanner.getPdfFont(font);
+                    for (Script script : Script.values()) {
+                        for (char sample : script.samples) {
+                            if (pdfFont.containsGlyph(sample)) {
+                                byScript.get(script).add(font);
+                                break;
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("Could not load font {}: {}", font.getFontName(), e.getMessage());
+                }
+            }
+            byScript.replaceAll((script, fonts) -> Collections.unmodifiableSet(fonts));
+            fontsByScript = byScript;
+            fontSet = scanner.getFontSet();
+            log.info("Loaded {} fonts for PDF rendering in {} ms ({})", fontSet.size(),
+                    System.currentTimeMillis() - start,
+                    byScript.entrySet().stream()
+                            .map(entry -> entry.getKey() + "=" + entry.getValue().size())
+                            .collect(Collectors.joining(", ")));
+        } finally {
+            loadLock.unlock();
+        }
+    }
+    
+    /**
+     * The scripts used in the text, or null if it uses one we have no font list for.
+     */
+    private static Set<Script> scriptsOf(String text) {
+        Set<Script> scripts = EnumSet.of(Script.LATIN);
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            switch (Character.UnicodeScript.of(codePoint)) {
+                case COMMON, INHERITED, LATIN -> { }
+                case CYRILLIC -> scripts.add(Script.CYRILLIC);
+                case ARABIC, HEBREW -> scripts.add(Script.RTL);
+                case HAN, HIRAGANA, KATAKANA, HANGUL, BOPOMOFO -> scripts.add(Script.CJK);
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return scripts;
+    }
+    
+    private Set<FontInfo> fontsFor(Set<Script> scripts) {
+        if (scripts == null) {
+            return null;
+        }
+        return fontsByScripts.computeIfAbsent(scripts, key -> {
+            Set<FontInfo> fonts = new HashSet<>();
+            key.forEach(script -> fonts.addAll(fontsByScript.get(script)));
+            return Collections.unmodifiableSet(fonts);
+        });
+    }
+    
+    /**
+     * Font provider over the shared font set that only picks from the given fonts (falls back to
+     * all fonts if none of them is available, e.g. on a machine without matching system fonts).
+     */
+    private static class ScriptFontProvider extends FontProvider {
+        private final Set<FontInfo> allowed;
+        
+        ScriptFontProvider(FontSet fontSet, Set<FontInfo> allowed) {
+            super(fontSet, DEFAULT_FONT_FAMILY);
+            this.allowed = allowed;
+        }
+        
+        @Override
+        protected FontSelector createFontSelector(Collection<FontInfo> fonts, List<String> fontFamilies,
+                                                  FontCharacteristics fc) {
+            if (allowed != null && !allowed.isEmpty()) {
+                List<FontInfo> filtered = fonts.stream().filter(allowed::contains).collect(Collectors.toList());
+                if (!filtered.isEmpty()) {
+                    return super.createFontSelector(filtered, fontFamilies, fc);
+                }
+            }
+            return super.createFontSelector(fonts, fontFamilies, fc);
+        }
+    }
+}
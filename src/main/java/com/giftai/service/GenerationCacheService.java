@@ -0,0 +1,353 @@
+package com.giftai.service;
+
+import com.giftai.entity.GenerationCacheEntity;
+import com.giftai.model.BookRequest;
+import com.giftai.model.CharacterInfo;
+import com.giftai.repository.GenerationCacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Content-addressed cache for AI story output, scoped to the user who asked for it. A user's
+ * requests that only differ in recipient name or giver share an entry: those two values are
+ * stored as placeholders and filled back in on a hit. Stories are never shared between users,
+ * since templating cannot catch every nickname or inflected form of a name, and a story in which
+ * the name still appears inflected is not cached at all. A bounded LRU map sits in front of the
+ * persistent {@code generation_cache} table, whose expired rows are purged periodically.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationCacheService {
+    
+    // Bump when the prompt changes so old stories are no longer served
+    private static final String PROMPT_VERSION = "v1";
+    private static final String RECIPIENT_PLACEHOLDER = "{{recipient}}";
+    private static final String GIVER_PLACEHOLDER = "{{giver}}";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
+    private final GenerationCacheRepository cacheRepository;
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${generation.cache.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${generation.cache.max-entries:500}")
+    private int maxEntries;
+    
+    @Value("${generation.cache.ttl-hours:168}")
+    private long ttlHours;
+    
+    @Value("${generation.cache.purge-interval-minutes:60}")
+    private long purgeIntervalMinutes;
+    
+    @Value("${openai.model:gpt-3.5-turbo}")
+    private String model;
+    
+    // Not synchronized: a contended monitor would pin virtual threads to their carrier
+    private final ReentrantLock memoryLock = new ReentrantLock();
+    private Map<String, CachedStory> memory;
+    private Counter memoryHits;
+    private Counter databaseHits;
+    private Counter misses;
+    private ScheduledThreadPoolExecutor purger;
+    
+    @PostConstruct
+    public void init() {
+        memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStory> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        memoryHits = Counter.builder("generation.cache.requests").tag("result", "hit").tag("tier", "memory").register(meterRegistry);
+        databaseHits = Counter.builder("generation.cache.requests").tag("result", "hit").tag("tier", "database").register(meterRegistry);
+        misses = Counter.builder("generation.cache.requests").tag("result", "miss").tag("tier", "none").register(meterRegistry);
+        Gauge.builder("generation.cache.size", this, GenerationCacheService::memorySize).register(meterRegistry);
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || purgeIntervalMinutes <= 0) {
+            return;
+        }
+        purger = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "generation-cache-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purgeExpired, purgeIntervalMinutes, purgeIntervalMinutes, TimeUnit.MINUTES);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+    
+    /**
+     * Returns the user's cached AI output personalised for this request, or null on a miss.
+     */
+    public String get(BookRequest request, Long userId) {
+        if (!enabled) {
+            return null;
+        }
+        String key = cacheKey(request, userId);
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(ttlHours);
+        
+        CachedStory story;
+        memoryLock.lock();
+        try {
+            story = memory.get(key);
+            if (story != null && story.createdAt.isBefore(cutoff)) {
+                memory.remove(key);
+                story = null;
+            }
+        } finally {
+            memoryLock.unlock();
+        }
+        
+        if (story != null) {
+            memoryHits.increment();
+        } else {
+            try {
+                GenerationCacheEntity entity = cacheRepository.findById(key).orElse(null);
+                if (entity != null && !entity.getCreatedAt().isBefore(cutoff)) {
+                    story = new CachedStory(entity.getContent(), entity.getCreatedAt());
+                    memoryLock.lock();
+                    try {
+                        memory.put(key, story);
+                    } finally {
+                        memoryLock.unlock();
+                    }
+                    databaseHits.increment();
+                }
+            } catch (Exception e) {
+                log.warn("Could not read generation cache: {}", e.getMessage());
+            }
+        }
+        
+        if (story == null) {
+            misses.increment();
+            return null;
+        }
+        
+        try {
+            cacheRepository.incrementHitCount(key);
+        } catch (Exception e) {
+            log.debug("Could not update cache hit count: {}", e.getMessage());
+        }
+        log.info("Generation cache hit for key: {}", key);
+        return personalise(story.content, request);
+    }
+    
+    /**
+     * Stores successful AI output for this request of the given user.
+     */
+    public void put(BookRequest request, Long userId, String aiContent) {
+        if (!enabled || aiContent == null || aiContent.isBlank()) {
+            return;
+        }
+        String key = cacheKey(request, userId);
+        String template = toTemplate(aiContent, request);
+        if (template == null) {
+            log.debug("Story not cached: a name appears in a form that cannot be templated");
+            return;
+        }
+        CachedStory story = new CachedStory(template, LocalDateTime.now());
+        memoryLock.lock();
+        try {
+            memory.put(key, story);
+        } finally {
+            memoryLock.unlock();
+        }
+        try {
+            upsert(key, template, story.createdAt);
+        } catch (Exception e) {
+            log.warn("Could not persist generation cache entry: {}", e.getMessage());
+        }
+    }
+    
+    // Update first: a key that is cached again (usually because it expired) must get a fresh
+    // created_at, which save() would not give it since it merges into the existing row
+    private void upsert(String key, String template, LocalDateTime createdAt) {
+        if (cacheRepository.refresh(key, template, createdAt) > 0) {
+            return;
+        }
+        try {
+            cacheRepository.insert(key, template, createdAt);
+        } catch (DataIntegrityViolationException e) {
+            // Another instance inserted the key at the same moment
+            cacheRepository.refresh(key, template, createdAt);
+        }
+    }
+    
+    /**
+     * Removes cached stories. With {@code expiredOnly} only entries older than the TTL are removed.
+     *
+     * @return number of persistent entries removed
+     */
+    public int purge(boolean expiredOnly) {
+        LocalDateTime cutoff = expiredOnly ? LocalDateTime.now().minusHours(ttlHours) : LocalDateTime.now().plusSeconds(1);
+        memoryLock.lock();
+        try {
+            memory.values().removeIf(story -> story.createdAt.isBefore(cutoff));
+        } finally {
+            memoryLock.unlock();
+        }
+        int removed = cacheRepository.deleteByCreatedAtBefore(cutoff);
+        log.info("Generation cache purged ({}): {} persistent entries removed", expiredOnly ? "expired only" : "all", removed);
+        return removed;
+    }
+    
+    private void purgeExpired() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusHours(ttlHours);
+            memoryLock.lock();
+            try {
+                memory.values().removeIf(story -> story.createdAt.isBefore(cutoff));
+            } finally {
+                memoryLock.unlock();
+            }
+            int removed = cacheRepository.deleteByCreatedAtBefore(cutoff);
+            if (removed > 0) {
+                log.info("Removed {} expired generation cache entries", removed);
+            }
+        } catch (Exception e) {
+            log.warn("Could not purge expired generation cache entries: {}", e.getMessage());
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("memoryEntries", memorySize());
+        stats.put("maxMemoryEntries", maxEntries);
+        stats.put("persistentEntries", cacheRepository.count());
+        stats.put("ttlHours", ttlHours);
+        stats.put("memoryHits", (long) memoryHits.count());
+        stats.put("databaseHits", (long) databaseHits.count());
+        stats.put("misses", (long) misses.count());
+        return stats;
+    }
+    
+    private int memorySize() {
+        memoryLock.lock();
+        try {
+            return memory.size();
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+    
+    /**
+     * Canonical hash of the user and every request field that shapes the story, except recipient
+     * name and giver (those are templated). Text is trimmed, lower-cased and whitespace-collapsed,
+     * and characters are sorted so their order does not matter.
+     */
+    String cacheKey(BookRequest request, Long userId) {
+        String characters = request.getCharacters() == null ? "" : request.getCharacters().stream()
+                .map(this::normalize)
+                .sorted()
+                .collect(Collectors.joining("\u001e"));
+        String canonical = String.join("\u001f",
+                PROMPT_VERSION,
+                String.valueOf(userId),
+                normalize(model),
+                String.valueOf(request.getAge()),
+                normalize(request.getGender()),
+                normalize(request.getLanguage()),
+                normalize(request.getTheme()),
+                normalize(request.getMainTopic()),
+                normalize(request.getTone()),
+                normalize(request.getAppearance()),
+                characters);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    private String normalize(CharacterInfo character) {
+        return String.join("\u001d",
+                normalize(character.getName()),
+                normalize(character.getType()),
+                normalize(character.getAppearance()),
+                normalize(character.getDescription()));
+    }
+    
+    private String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return WHITESPACE.matcher(value.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * The story with recipient name and giver replaced by placeholders, or null if either name is
+     * still left as the start of a longer word (a suffixed form such as Turkish "Ayşenin").
+     */
+    private String toTemplate(String content, BookRequest request) {
+        String template = replaceWord(content, request.getName(), RECIPIENT_PLACEHOLDER);
+        if (request.getGiver() != null && !request.getGiver().equalsIgnoreCase(request.getName())) {
+            template = replaceWord(template, request.getGiver(), GIVER_PLACEHOLDER);
+        }
+        if (startsWord(template, request.getName()) || startsWord(template, request.getGiver())) {
+            return null;
+        }
+        return template;
+    }
+    
+    private boolean startsWord(String text, String word) {
+        if (word == null || word.isBlank()) {
+            return false;
+        }
+        return Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(word.trim()) + "\\p{L}",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher(text).find();
+    }
+    
+    private String personalise(String template, BookRequest request) {
+        return template
+                .replace(RECIPIENT_PLACEHOLDER, request.getName() != null ? request.getName() : "")
+                .replace(GIVER_PLACEHOLDER, request.getGiver() != null ? request.getGiver() : "");
+    }
+    
+    private String replaceWord(String text, String word, String replacement) {
+        if (word == null || word.isBlank()) {
+            return text;
+        }
+        Pattern pattern = Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(word.trim()) + "(?![\\p{L}\\p{N}])");
+        return pattern.matcher(text).replaceAll(Matcher.quoteReplacement(replacement));
+    }
+    
+    private record CachedStory(String content, LocalDateTime createdAt) {
+    }
+}
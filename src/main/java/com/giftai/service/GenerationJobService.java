@@ -0,0 +1,879 @@
+package com.giftai.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.giftai.entity.GenerationJobEntity;
+import com.giftai.entity.IdempotencyKeyEntity;
+import com.giftai.model.BookRequest;
+import com.giftai.model.BookResponse;
+import com.giftai.model.GenerationJobResponse;
+import com.giftai.provider.CancellationToken;
+import com.giftai.provider.CircuitBreakerOpenException;
+import com.giftai.provider.ConcurrencyLimitExceededException;
+import com.giftai.provider.GenerationCancelledException;
+import com.giftai.repository.GenerationJobRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Runs book generation as background jobs so the HTTP request (and its DB connection)
+ * is released while the AI provider is working. Jobs are rows in {@code generation_jobs}, so any
+ * instance can take them: every instance claims queued jobs with {@code SELECT ... FOR UPDATE SKIP
+ * LOCKED}, in weighted fair order across users, as long as its {@link GenerationScheduler} has idle
+ * workers. A claimed job is leased to the instance (see {@link ClusterNode}) and the lease renewed
+ * by a heartbeat; a job whose lease ran out is queued again for any instance (or failed after
+ * {@code generation.jobs.max-attempts}). Finished jobs are pruned once they are older than the
+ * retention window.
+ * <p>
+ * The items of a batch (see {@link BatchGenerationService}) are jobs too, tagged with their batch:
+ * they are claimed by the same loop, at most {@code generation.batch.max-parallel} of a batch at a
+ * time, and once every item of a batch has finished, the instance that notices first hands their
+ * PDFs to the renderer together.
+ * <p>
+ * Every generation carries a {@link CancellationToken} that expires at the configured deadline and
+ * can be cancelled by the user (or, when streaming, by a disconnect); a cancel that reaches another
+ * instance is passed on to the one running the job with its next heartbeat.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationJobService {
+    
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+    
+    private static final Set<Status> FINISHED = EnumSet.of(Status.COMPLETED, Status.FAILED, Status.CANCELLED);
+    private static final Set<Status> PENDING = EnumSet.of(Status.QUEUED, Status.RUNNING);
+    private static final String FAILED_ERROR = "An error occurred while creating the book";
+    private static final String BUSY_ERROR = "The AI service is busy, please try again later";
+    private static final int RECLAIM_BATCH = 100;
+    // How long shutdown waits for cancelled jobs to stop, while the datasource is still open
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+    // How long a computed turn order answers queue positions before it is queried again
+    private static final long TURN_ORDER_MAX_AGE_MILLIS = 1000;
+    
+    private final BookService bookService;
+    private final IdempotencyService idempotencyService;
+    private final GenerationScheduler scheduler;
+    private final GenerationJobRepository jobRepository;
+    private final PdfRenderJobService pdfRenderJobService;
+    private final ClusterNode clusterNode;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Jobs claimed by this instance (queued on its scheduler or running), whose leases the heartbeat renews
+    private final Map<String, LocalJob> localJobs = new ConcurrentHashMap<>();
+    private final AtomicLong nextPruneNanos = new AtomicLong(System.nanoTime());
+    private final AtomicReference<TurnOrder> lastTurnOrder = new AtomicReference<>();
+    private ScheduledThreadPoolExecutor deadlineTimer;
+    private ScheduledThreadPoolExecutor poller;
+    private ScheduledThreadPoolExecutor heartbeat;
+    
+    @Value("${generation.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+    
+    @Value("${generation.deadline-seconds:1800}")
+    private long deadlineSeconds;
+    
+    @Value("${generation.worker.queue-capacity:50}")
+    private int queueCapacity;
+    
+    @Value("${generation.batch.max-parallel:2}")
+    private int batchParallel;
+    
+    @Value("${generation.jobs.max-attempts:2}")
+    private int maxAttempts;
+    
+    @Value("${generation.jobs.poll-seconds:2}")
+    private long pollSeconds;
+    
+    @PostConstruct
+    public void init() {
+        deadlineTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "generation-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Finished generations cancel their timer; drop it right away instead of at the deadline
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+    }
+    
+    /**
+     * Starts polling for queued jobs and renewing the leases of the ones claimed here.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        // One thread each: polls never overlap, and a slow poll never holds up a lease renewal
+        poller = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "generation-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollSafely, 0, pollSeconds, TimeUnit.SECONDS);
+        heartbeat = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "generation-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = clusterNode.getHeartbeatSeconds();
+        heartbeat.scheduleWithFixedDelay(this::heartbeatSafely, interval, interval, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stops claiming jobs and hands the ones claimed here back to the queue before the context
+     * (and its datasource) goes away: their leases are released so another instance takes them
+     * over right away, and their generations are cancelled here so no worker keeps an AI call
+     * going that another instance is about to pay for again.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        handBackLocalJobs();
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        deadlineTimer.shutdownNow();
+    }
+    
+    private void handBackLocalJobs() {
+        if (localJobs.isEmpty()) {
+            return;
+        }
+        try {
+            int handedBack = jobRepository.handBack(new ArrayList<>(localJobs.keySet()), clusterNode.getId(),
+                    Status.RUNNING, Status.QUEUED, LocalDateTime.now());
+            log.info("Shutting down: {} generation jobs handed back to the queue", handedBack);
+        } catch (Exception e) {
+            log.warn("Could not hand generation jobs back, they are reclaimed once their leases run out: {}", e.getMessage());
+        }
+        // No longer leased to us, so the workers drop whatever these end with
+        localJobs.values().forEach(job -> job.cancellation.cancel(CancellationToken.SHUTTING_DOWN));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_WAIT_SECONDS);
+        while (!localJobs.isEmpty() && System.nanoTime() - deadline < 0) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!localJobs.isEmpty()) {
+            log.warn("Shutting down with {} generation jobs still winding down", localJobs.size());
+        }
+    }
+    
+    /**
+     * A cancellation token that expires after {@code generation.deadline-seconds}. Call
+     * {@link CancellationToken#finish()} once the generation is over.
+     */
+    public CancellationToken newCancellation() {
+        CancellationToken cancellation = new CancellationToken();
+        if (deadlineSeconds > 0) {
+            cancellation.expireAfter(deadlineTimer, deadlineSeconds, TimeUnit.SECONDS);
+        }
+        return cancellation;
+    }
+    
+    /**
+     * Queues a generation job for the given user.
+     *
+     * @throws TaskRejectedException if the job queue is full
+     */
+    public GenerationJobResponse submit(BookRequest request, Long userId) {
+        return submit(request, userId, null, GenerationScheduler.Lane.STANDARD);
+    }
+    
+    /**
+     * The job (or finished book) a repeated {@code idempotencyKey} already started, or null if the
+     * key would start a new job. Lets callers answer a retry before applying admission control.
+     *
+     * @throws IdempotencyService.KeyReusedException if the key was used with a different request
+     */
+    public GenerationJobResponse findReplay(BookRequest request, Long userId, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return null;
+        }
+        return idempotencyService.find(idempotencyService.keyHash(userId, idempotencyKey), request)
+                .map(binding -> replay(binding, userId))
+                .orElse(null);
+    }
+    
+    /**
+     * Same as {@link #submit(BookRequest, Long)}, but queued in the given scheduler lane. A
+     * repeated {@code idempotencyKey} returns the job (or finished book) the key first started
+     * instead of generating again.
+     *
+     * @throws IdempotencyService.KeyReusedException if the key was used with a different request
+     * @throws TaskRejectedException if the job queue is full
+     */
+    public GenerationJobResponse submit(BookRequest request, Long userId, String idempotencyKey, GenerationScheduler.Lane lane) {
+        pruneFinishedJobs();
+        // A retry of a job that already exists is answered even when the queue is full
+        GenerationJobResponse existing = findReplay(request, userId, idempotencyKey);
+        if (existing != null) {
+            log.info("Replaying generation job {} for repeated idempotency key (user: {})", existing.getJobId(), userId);
+            return existing;
+        }
+        // Batch items have their own cap (generation.batch.queue-capacity)
+        if (jobRepository.countByStatusAndBatchIdIsNull(Status.QUEUED) >= queueCapacity) {
+            log.warn("Generation queue full, rejecting job for user: {}", userId);
+            throw new TaskRejectedException("Generation queue is full (" + queueCapacity + " jobs)");
+        }
+        
+        String keyHash = idempotencyKey != null ? idempotencyService.keyHash(userId, idempotencyKey) : null;
+        LocalDateTime now = LocalDateTime.now();
+        // Saved before the key is claimed, so a concurrent retry always finds the job; with a key,
+        // it is leased to us until the key is settled so no instance starts a job we may drop
+        GenerationJobEntity job = jobRepository.save(GenerationJobEntity.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(userId)
+                .lane(lane)
+                .request(toJson(request))
+                .status(Status.QUEUED)
+                .idempotencyKeyHash(keyHash)
+                .deadlineAt(deadlineSeconds > 0 ? now.plusSeconds(deadlineSeconds) : null)
+                .leaseOwner(keyHash != null ? clusterNode.getId() : null)
+                .leaseExpiresAt(keyHash != null ? clusterNode.leaseExpiry() : null)
+                .build());
+        
+        if (keyHash != null) {
+            GenerationJobResponse replay;
+            try {
+                replay = claimIdempotencyKey(job, request);
+            } catch (RuntimeException e) {
+                jobRepository.deleteById(job.getId());
+                throw e;
+            }
+            if (replay != null) {
+                jobRepository.deleteById(job.getId());
+                return replay;
+            }
+            jobRepository.release(job.getId(), clusterNode.getId(), Status.QUEUED, LocalDateTime.now());
+        }
+        
+        log.info("Queued generation job {} for user: {} in lane {}", job.getId(), userId, lane);
+        // The new job has a place in the turn order now
+        lastTurnOrder.set(null);
+        // Picked up right away if this instance has an idle worker, otherwise by the first one that has
+        pollSoon();
+        return jobRepository.findById(job.getId()).map(this::toResponse).orElseGet(() -> toResponse(job));
+    }
+    
+    /**
+     * Runs a generation on the worker pool, streaming the AI output to {@code onChunk}.
+     * Streamed generations are not tracked as jobs: the open connection is the status, so they
+     * always run on the instance holding it.
+     *
+     * @throws TaskRejectedException if the worker pool and its queue are full
+     */
+    public CompletableFuture<BookResponse> submitStreaming(BookRequest request, Long userId, GenerationScheduler.Lane lane,
+                                                          CancellationToken cancellation, Consumer<String> onChunk) {
+        log.info("Queued streaming generation for user: {} in lane {}", userId, lane);
+        return CompletableFuture.supplyAsync(() -> bookService.generateBook(request, userId, onChunk, true, cancellation),
+                scheduler.executor(userId, lane));
+    }
+    
+    /**
+     * Returns the job if it exists and belongs to the given user.
+     */
+    public GenerationJobResponse getJob(String jobId, Long userId) {
+        return findJob(jobId, userId).map(this::toResponse).orElse(null);
+    }
+    
+    /**
+     * Cancels the job if it belongs to the given user and has not finished yet. A queued job is
+     * removed from the queue; a running one has its AI call aborted and ends as CANCELLED (when it
+     * runs on another instance, within a heartbeat).
+     *
+     * @return the job after the cancel request, or null if there is no such job
+     */
+    public GenerationJobResponse cancel(String jobId, Long userId) {
+        GenerationJobEntity job = findJob(jobId, userId).orElse(null);
+        if (job == null) {
+            return null;
+        }
+        cancel(job);
+        return getJob(jobId, userId);
+    }
+    
+    /**
+     * Cancels a job on behalf of its user, wherever it is: taken off the queue, aborted here, or
+     * passed on to the instance running it. Does nothing if the job has finished.
+     */
+    public void cancel(GenerationJobEntity job) {
+        String jobId = job.getId();
+        String reason = CancellationToken.CANCELLED_BY_USER;
+        LocalJob local = localJobs.get(jobId);
+        if (local != null) {
+            if (local.cancellation.cancel(reason)) {
+                log.info("Generation job {} cancelled by user: {}", jobId, job.getUserId());
+            }
+        } else if (!FINISHED.contains(job.getStatus())) {
+            if (jobRepository.cancelQueued(jobId, Status.QUEUED, Status.CANCELLED, reason, cancelledError(reason), LocalDateTime.now()) > 0) {
+                meterRegistry.counter("generation.cancelled", "reason", reason, "stage", "queued").increment();
+                log.info("Generation job {} cancelled by user: {} while queued", jobId, job.getUserId());
+                releaseIdempotencyKey(job.getIdempotencyKeyHash(), jobId);
+            } else if (jobRepository.requestCancel(jobId, Status.RUNNING, reason) > 0) {
+                log.info("Generation job {} cancelled by user: {}, stopping it on its instance", jobId, job.getUserId());
+            }
+        }
+    }
+    
+    /**
+     * Queue status as seen by one user: their lane, how many of their jobs are waiting and the
+     * position of the first one (1 = next to run), across all instances.
+     */
+    public Map<String, Object> getQueueStatus(Long userId, GenerationScheduler.Lane lane) {
+        List<String> turnOrder = queuedInTurnOrder();
+        Set<String> mine = new HashSet<>(jobRepository.findIdsByUserIdAndStatus(userId, Status.QUEUED));
+        Integer position = null;
+        for (int i = 0; i < turnOrder.size() && position == null; i++) {
+            if (mine.contains(turnOrder.get(i))) {
+                position = i + 1;
+            }
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("lane", lane.name());
+        status.put("queued", mine.size());
+        status.put("position", position);
+        status.put("queueLength", jobRepository.countByStatus(Status.QUEUED));
+        status.put("running", jobRepository.countByStatus(Status.RUNNING));
+        return status;
+    }
+    
+    private Optional<GenerationJobEntity> findJob(String jobId, Long userId) {
+        return jobRepository.findById(jobId).filter(job -> job.getUserId().equals(userId));
+    }
+    
+    /**
+     * Number of jobs (batch items included) waiting to be claimed by any instance; the backlog
+     * for AI admission control.
+     */
+    public long queuedJobs() {
+        return jobRepository.countByStatus(Status.QUEUED);
+    }
+    
+    /**
+     * Polls for queued jobs right away instead of at the next interval.
+     */
+    public void pollSoon() {
+        ScheduledThreadPoolExecutor current = poller;
+        if (current != null && !current.isShutdown()) {
+            current.execute(this::pollSafely);
+        }
+    }
+    
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (Exception e) {
+            log.error("Polling generation jobs failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Settles the jobs that lost their lease or their deadline, then claims as many queued jobs as
+     * this instance has idle workers for.
+     */
+    private void poll() {
+        LocalDateTime now = LocalDateTime.now();
+        reclaimExpired(now);
+        cancelOverdue(now);
+        pruneFinishedJobs();
+        queueBatchRenders();
+        
+        int free = scheduler.freeWorkers();
+        if (free <= 0) {
+            return;
+        }
+        List<GenerationJobEntity> claimed = transactionTemplate.execute(status -> {
+            List<String> turnOrder = queuedInTurnOrder();
+            lastTurnOrder.set(new TurnOrder(turnOrder));
+            if (turnOrder.isEmpty()) {
+                return List.<GenerationJobEntity>of();
+            }
+            Set<String> locked = new HashSet<>(jobRepository.lockClaimable(turnOrder, LocalDateTime.now()));
+            List<String> ids = turnOrder.stream().filter(locked::contains).limit(free).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                return List.<GenerationJobEntity>of();
+            }
+            jobRepository.claim(ids, Status.QUEUED, Status.RUNNING, clusterNode.getId(), clusterNode.leaseExpiry(), LocalDateTime.now());
+            Map<String, GenerationJobEntity> byId = jobRepository.findAllById(ids).stream()
+                    .collect(Collectors.toMap(GenerationJobEntity::getId, Function.identity()));
+            return ids.stream().map(byId::get).collect(Collectors.toList());
+        });
+        claimed.forEach(this::startClaimed);
+    }
+    
+    private List<String> queuedInTurnOrder() {
+        return jobRepository.findQueuedInTurnOrder(scheduler.weight(GenerationScheduler.Lane.PRIORITY),
+                scheduler.weight(GenerationScheduler.Lane.STANDARD), scheduler.weight(GenerationScheduler.Lane.BATCH),
+                batchParallel, queueCapacity);
+    }
+    
+    /**
+     * Hands a job this instance has claimed to its scheduler.
+     */
+    private void startClaimed(GenerationJobEntity entity) {
+        BookRequest request;
+        try {
+            request = objectMapper.readValue(entity.getRequest(), BookRequest.class);
+        } catch (JsonProcessingException e) {
+            log.error("Generation job {} has an unreadable request: {}", entity.getId(), e.getMessage());
+            jobRepository.finish(entity.getId(), clusterNode.getId(), Status.FAILED, null, FAILED_ERROR, null, LocalDateTime.now());
+            releaseIdempotencyKey(entity.getIdempotencyKeyHash(), entity.getId());
+            return;
+        }
+        
+        LocalJob job = new LocalJob(entity.getId(), entity.getUserId(), entity.getIdempotencyKeyHash(), entity.getBatchId());
+        job.cancellation = newCancellation(entity.getDeadlineAt());
+        localJobs.put(job.id, job);
+        try {
+            job.ticket = scheduler.submit(job.userId, entity.getLane(), () -> run(job, request));
+        } catch (TaskRejectedException e) {
+            // Shutting down, or the workers were taken by streams or batches meanwhile: let another instance have it
+            localJobs.remove(job.id);
+            job.cancellation.finish();
+            jobRepository.release(job.id, clusterNode.getId(), Status.QUEUED, LocalDateTime.now());
+            log.info("Generation job {} handed back to the queue: {}", job.id, e.getMessage());
+            return;
+        }
+        // A job cancelled (or past its deadline) while still queued here leaves the queue right away
+        job.cancellation.onCancel(() -> dequeue(job));
+        log.info("Claimed generation job {} for user: {} in lane {} (attempt {})", job.id, job.userId, entity.getLane(),
+                entity.getAttempts());
+    }
+    
+    private CancellationToken newCancellation(LocalDateTime deadlineAt) {
+        CancellationToken cancellation = new CancellationToken();
+        if (deadlineAt != null) {
+            long remainingMillis = Math.max(0, Duration.between(LocalDateTime.now(), deadlineAt).toMillis());
+            cancellation.expireAfter(deadlineTimer, remainingMillis, TimeUnit.MILLISECONDS);
+        }
+        return cancellation;
+    }
+    
+    private void dequeue(LocalJob job) {
+        if (job.ticket == null || !job.ticket.cancel()) {
+            // Already running: the worker sees the cancellation and ends the job itself
+            return;
+        }
+        String reason = job.cancellation.getReason();
+        meterRegistry.counter("generation.cancelled", "reason", reason, "stage", "queued").increment();
+        job.cancellation.finish();
+        finish(job, Status.CANCELLED, cancelledError(reason), null);
+        log.info("Generation job {} removed from the queue ({})", job.id, reason);
+    }
+    
+    private void run(LocalJob job, BookRequest request) {
+        Status status = null;
+        String error = null;
+        Long retryAfterSeconds = null;
+        try {
+            // Completed in the transaction that saves the book: a job that loses its lease before
+            // then leaves no book behind for the instance that takes it over. Batch PDFs are
+            // rendered together once the whole batch is done.
+            BookResponse book = bookService.generateBook(request, job.userId, null, job.batchId == null, job.cancellation,
+                    savedId -> recordCompleted(job, savedId));
+            log.info("Generation job {} completed with book ID: {}", job.id, book.getBookId());
+            countBatchItem(job, "completed");
+        } catch (LeaseLostException e) {
+            if (job.id.equals(e.jobId)) {
+                log.warn("Generation job {} is no longer leased to this instance, dropping its book", job.id);
+            } else {
+                // The identical generation this job waited for lost its own job
+                log.warn("Generation job {} failed: the generation it waited for was dropped", job.id);
+                error = FAILED_ERROR;
+                status = Status.FAILED;
+            }
+        } catch (GenerationCancelledException e) {
+            log.info("Generation job {} cancelled: {}", job.id, e.getReason());
+            error = cancelledError(e.getReason());
+            status = Status.CANCELLED;
+        } catch (ConcurrencyLimitExceededException e) {
+            retryAfterSeconds = e.getRetryAfterSeconds();
+            status = deferOrFail(job, retryAfterSeconds, e.getMessage());
+            error = status != null ? BUSY_ERROR : null;
+        } catch (CircuitBreakerOpenException e) {
+            retryAfterSeconds = e.getRetryAfterSeconds();
+            status = deferOrFail(job, retryAfterSeconds, e.getMessage());
+            error = status != null ? BUSY_ERROR : null;
+        } catch (Exception e) {
+            log.error("Generation job {} failed: {}", job.id, e.getMessage(), e);
+            error = FAILED_ERROR;
+            status = Status.FAILED;
+        } finally {
+            job.cancellation.finish();
+        }
+        if (status != null) {
+            countBatchItem(job, status.name().toLowerCase(Locale.ROOT));
+            finish(job, status, error, retryAfterSeconds);
+        } else {
+            // Already recorded with the book, deferred, or taken over by another instance
+            localJobs.remove(job.id);
+        }
+        // A worker is free again
+        pollSoon();
+    }
+    
+    /**
+     * A job that found the AI backend busy (at its concurrency limit, or its circuit breaker
+     * open) is not at fault: it waits in the queue instead, and only fails if it cannot go back.
+     *
+     * @return null if the job was deferred, otherwise FAILED
+     */
+    private Status deferOrFail(LocalJob job, long retryAfterSeconds, String reason) {
+        if (defer(job, retryAfterSeconds)) {
+            log.info("Generation job {} deferred for {} s: {}", job.id, retryAfterSeconds, reason);
+            return null;
+        }
+        log.warn("Generation job {} rejected: {}", job.id, reason);
+        return Status.FAILED;
+    }
+    
+    /**
+     * Puts a job that found the AI backend busy back in the queue, to be claimed again
+     * (here or elsewhere) once {@code retryAfterSeconds} have passed.
+     *
+     * @return false if the job is no longer ours to requeue, or was asked to be cancelled
+     */
+    private boolean defer(LocalJob job, long retryAfterSeconds) {
+        LocalDateTime now = LocalDateTime.now();
+        return jobRepository.defer(job.id, clusterNode.getId(), Status.RUNNING, Status.QUEUED,
+                now.plusSeconds(retryAfterSeconds), retryAfterSeconds, now) > 0;
+    }
+    
+    private void countBatchItem(LocalJob job, String result) {
+        if (job.batchId != null) {
+            meterRegistry.counter("generation.batch.items", "result", result).increment();
+        }
+    }
+    
+    /**
+     * Marks the job COMPLETED and settles its idempotency key, inside the transaction that saves
+     * its book.
+     *
+     * @throws LeaseLostException if another instance took the job over, rolling the book back
+     */
+    private void recordCompleted(LocalJob job, Long bookId) {
+        if (jobRepository.finish(job.id, clusterNode.getId(), Status.COMPLETED, bookId, null, null, LocalDateTime.now()) == 0) {
+            throw new LeaseLostException(job.id);
+        }
+        if (job.idempotencyKeyHash != null) {
+            idempotencyService.completed(job.idempotencyKeyHash, job.id, bookId);
+        }
+    }
+    
+    /**
+     * Records a job this instance ran that ended without a book and frees its idempotency key.
+     */
+    private void finish(LocalJob job, Status status, String error, Long retryAfterSeconds) {
+        try {
+            if (jobRepository.finish(job.id, clusterNode.getId(), status, null, error, retryAfterSeconds, LocalDateTime.now()) == 0) {
+                // We missed our heartbeats and another instance took the job over
+                log.warn("Generation job {} is no longer leased to this instance, dropping its {} result", job.id, status);
+                return;
+            }
+            // Let a retry with the same key start over
+            releaseIdempotencyKey(job.idempotencyKeyHash, job.id);
+        } finally {
+            localJobs.remove(job.id);
+        }
+    }
+    
+    /**
+     * Queues the jobs whose instance stopped renewing their lease again, or settles them if they
+     * were cancelled, are past their deadline or have used up their attempts.
+     */
+    private void reclaimExpired(LocalDateTime now) {
+        List<GenerationJobEntity> reclaimed = transactionTemplate.execute(status -> {
+            List<GenerationJobEntity> expired = jobRepository.lockExpired(now, RECLAIM_BATCH);
+            for (GenerationJobEntity job : expired) {
+                // Locked, so its owner cannot finish it meanwhile
+                String owner = job.getLeaseOwner();
+                if (job.getCancelReason() != null || (job.getDeadlineAt() != null && !job.getDeadlineAt().isAfter(now))) {
+                    String reason = job.getCancelReason() != null ? job.getCancelReason() : CancellationToken.DEADLINE_EXCEEDED;
+                    job.setStatus(Status.CANCELLED);
+                    job.setCancelReason(reason);
+                    job.setError(cancelledError(reason));
+                } else if (job.getAttempts() >= maxAttempts) {
+                    job.setStatus(Status.FAILED);
+                    job.setError(FAILED_ERROR);
+                } else {
+                    job.setStatus(Status.QUEUED);
+                }
+                job.setLeaseOwner(null);
+                job.setLeaseExpiresAt(null);
+                log.warn("Generation job {} lost its lease on {} after {} attempt(s), now {}",
+                        job.getId(), owner, job.getAttempts(), job.getStatus());
+            }
+            return expired;
+        });
+        for (GenerationJobEntity job : reclaimed) {
+            meterRegistry.counter("generation.jobs.reclaimed", "result", job.getStatus().name().toLowerCase(Locale.ROOT)).increment();
+            if (job.getStatus() != Status.QUEUED) {
+                releaseIdempotencyKey(job.getIdempotencyKeyHash(), job.getId());
+            }
+        }
+    }
+    
+    /**
+     * Cancels the queued jobs no instance got to before their deadline.
+     */
+    private void cancelOverdue(LocalDateTime now) {
+        String reason = CancellationToken.DEADLINE_EXCEEDED;
+        for (GenerationJobEntity job : jobRepository.findTop100ByStatusAndDeadlineAtLessThanEqual(Status.QUEUED, now)) {
+            if (jobRepository.cancelQueued(job.getId(), Status.QUEUED, Status.CANCELLED, reason, cancelledError(reason), now) > 0) {
+                meterRegistry.counter("generation.cancelled", "reason", reason, "stage", "queued").increment();
+                log.info("Generation job {} removed from the queue ({})", job.getId(), reason);
+                releaseIdempotencyKey(job.getIdempotencyKeyHash(), job.getId());
+            }
+        }
+    }
+    
+    /**
+     * Hands the PDFs of every batch whose items have all finished to the renderer together. The
+     * items are locked and marked in the transaction that queues their render jobs, so exactly one
+     * instance queues them and a crash cannot lose them.
+     */
+    private void queueBatchRenders() {
+        for (String batchId : jobRepository.findBatchesAwaitingRender(Status.COMPLETED, PENDING)) {
+            List<Long> renderJobIds = transactionTemplate.execute(status -> {
+                List<Long> ids = new ArrayList<>();
+                for (GenerationJobEntity item : jobRepository.lockAwaitingRender(batchId)) {
+                    ids.add(pdfRenderJobService.enqueue(item.getBookId(), null));
+                    item.setRenderQueued(true);
+                }
+                return ids;
+            });
+            if (!renderJobIds.isEmpty()) {
+                log.info("Batch {} finished, rendering {} PDFs", batchId, renderJobIds.size());
+                renderJobIds.forEach(renderJobId -> pdfRenderJobService.dispatch(renderJobId, null));
+            }
+        }
+    }
+    
+    private void heartbeatSafely() {
+        try {
+            if (localJobs.isEmpty()) {
+                return;
+            }
+            List<String> ids = new ArrayList<>(localJobs.keySet());
+            jobRepository.renew(ids, clusterNode.getId(), clusterNode.leaseExpiry());
+            // Cancels that reached another instance
+            for (GenerationJobEntity job : jobRepository.findByIdInAndCancelReasonIsNotNull(ids)) {
+                LocalJob local = localJobs.get(job.getId());
+                if (local != null && local.cancellation.cancel(job.getCancelReason())) {
+                    log.info("Generation job {} cancelled from another instance ({})", job.getId(), job.getCancelReason());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Renewing generation job leases failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void releaseIdempotencyKey(String keyHash, String jobId) {
+        if (keyHash != null) {
+            try {
+                idempotencyService.release(keyHash, jobId);
+            } catch (Exception e) {
+                log.warn("Could not update idempotency key for job {}: {}", jobId, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Binds the idempotency key to this job.
+     *
+     * @return null if this job should run, otherwise the earlier job or book to replay
+     */
+    private GenerationJobResponse claimIdempotencyKey(GenerationJobEntity job, BookRequest request) {
+        String keyHash = job.getIdempotencyKeyHash();
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Optional<IdempotencyKeyEntity> existing = idempotencyService.claim(keyHash, job.getUserId(), request, job.getId());
+            if (existing.isEmpty()) {
+                return null;
+            }
+            IdempotencyKeyEntity binding = existing.get();
+            GenerationJobResponse replay = replay(binding, job.getUserId());
+            if (replay != null) {
+                log.info("Replaying generation job {} for repeated idempotency key (user: {})", binding.getJobId(), job.getUserId());
+                return replay;
+            }
+            if (binding.getBookId() != null) {
+                // The book was deleted since; the key no longer points anywhere
+                idempotencyService.release(keyHash, binding.getJobId());
+            } else if (idempotencyService.replaceJob(keyHash, binding.getJobId(), job.getId())) {
+                // The original job failed, was cancelled or was pruned before it produced a book
+                return null;
+            }
+        }
+        throw new IllegalStateException("Could not claim idempotency key");
+    }
+    
+    private GenerationJobResponse replay(IdempotencyKeyEntity binding, Long userId) {
+        GenerationJobEntity original = jobRepository.findById(binding.getJobId()).orElse(null);
+        if (original != null && original.getStatus() != Status.FAILED && original.getStatus() != Status.CANCELLED) {
+            GenerationJobResponse response = toResponse(original);
+            response.setReplayed(true);
+            return response;
+        }
+        if (binding.getBookId() == null) {
+            return null;
+        }
+        try {
+            BookResponse book = bookService.getBookById(binding.getBookId(), userId);
+            return GenerationJobResponse.builder()
+                    .jobId(binding.getJobId())
+                    .status(Status.COMPLETED.name())
+                    .bookId(book.getBookId())
+                    .book(book)
+                    .createdAt(binding.getCreatedAt())
+                    .updatedAt(binding.getCreatedAt())
+                    .replayed(true)
+                    .build();
+        } catch (RuntimeException e) {
+            log.info("Book {} for idempotency key is no longer available: {}", binding.getBookId(), e.getMessage());
+            return null;
+        }
+    }
+    
+    private void pruneFinishedJobs() {
+        long now = System.nanoTime();
+        long next = nextPruneNanos.get();
+        if (now - next < 0 || !nextPruneNanos.compareAndSet(next, now + TimeUnit.MINUTES.toNanos(1))) {
+            return;
+        }
+        int removed = jobRepository.deleteFinishedBefore(FINISHED, Status.COMPLETED, LocalDateTime.now().minusMinutes(retentionMinutes));
+        if (removed > 0) {
+            log.info("Removed {} finished generation jobs", removed);
+        }
+    }
+    
+    private GenerationJobResponse toResponse(GenerationJobEntity job) {
+        BookResponse book = null;
+        if (job.getStatus() == Status.COMPLETED && job.getBookId() != null) {
+            try {
+                book = bookService.getBookById(job.getBookId(), job.getUserId());
+            } catch (RuntimeException e) {
+                log.info("Book {} of generation job {} is no longer available: {}", job.getBookId(), job.getId(), e.getMessage());
+            }
+        }
+        return GenerationJobResponse.builder()
+                .jobId(job.getId())
+                .status(job.getStatus().name())
+                .lane(job.getLane().name())
+                .queuePosition(job.getStatus() == Status.QUEUED ? queuePosition(job.getId()) : null)
+                .bookId(job.getBookId())
+                .book(book)
+                .error(job.getError())
+                .retryAfterSeconds(job.getRetryAfterSeconds())
+                .createdAt(job.getCreatedAt())
+                .updatedAt(job.getUpdatedAt())
+                .build();
+    }
+    
+    /**
+     * Position of a queued job in the turn order. Answered from the turn order of the last poll
+     * (or position lookup) while it is fresh, so polling clients do not each run the window query.
+     */
+    private Integer queuePosition(String jobId) {
+        TurnOrder turnOrder = lastTurnOrder.get();
+        if (turnOrder == null || System.nanoTime() - turnOrder.computedNanos > TimeUnit.MILLISECONDS.toNanos(TURN_ORDER_MAX_AGE_MILLIS)) {
+            turnOrder = new TurnOrder(queuedInTurnOrder());
+            lastTurnOrder.set(turnOrder);
+        }
+        return turnOrder.positions.get(jobId);
+    }
+    
+    private String toJson(BookRequest request) {
+        try {
+            return objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize book request", e);
+        }
+    }
+    
+    private static String cancelledError(String reason) {
+        return CancellationToken.DEADLINE_EXCEEDED.equals(reason)
+                ? "The book could not be created in time" : "Book creation was cancelled";
+    }
+    
+    /**
+     * Thrown when a job finished after another instance took it over.
+     */
+    private static class LeaseLostException extends RuntimeException {
+        private final String jobId;
+        
+        LeaseLostException(String jobId) {
+            super("Generation job " + jobId + " is no longer leased to this instance");
+            this.jobId = jobId;
+        }
+    }
+    
+    /**
+     * Queue positions (1-based) of the queued jobs in turn order, as of {@code computedNanos}.
+     */
+    private static final class TurnOrder {
+        final Map<String, Integer> positions = new HashMap<>();
+        final long computedNanos = System.nanoTime();
+        
+        TurnOrder(List<String> jobIds) {
+            for (int i = 0; i < jobIds.size(); i++) {
+                positions.put(jobIds.get(i), i + 1);
+            }
+        }
+    }
+    
+    /**
+     * A job this instance has claimed.
+     */
+    private static class LocalJob {
+        private final String id;
+        private final Long userId;
+        private final String idempotencyKeyHash;
+        private final String batchId;
+        private volatile GenerationScheduler.Ticket ticket;
+        private volatile CancellationToken cancellation = CancellationToken.NONE;
+        
+        LocalJob(String id, Long userId, String idempotencyKeyHash, String batchId) {
+            this.id = id;
+            this.userId = userId;
+            this.idempotencyKeyHash = idempotencyKeyHash;
+            this.batchId = batchId;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.giftai.service;
+
+import com.giftai.entity.UserEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Worker pool for book generation that picks queued work by weighted fair queueing instead of
+ * FIFO. Every (lane, user) pair is a flow; each new task gets a virtual finish tag of
+ * {@code max(virtual time, flow's last tag) + 1 / lane weight}, and workers always take the
+ * smallest tag. A user with many queued books therefore only gets one turn per round, and
+ * the high-weight priority lane (admins and configured users) is served well ahead of others.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationScheduler {
+    
+    public enum Lane { PRIORITY, STANDARD, BATCH }
+    
+    private final MeterRegistry meterRegistry;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+    // Last finish tag per flow; flows whose tag is behind the virtual time are dropped
+    private final Map<String, Double> flowTags = new HashMap<>();
+    private final Map<Lane, AtomicInteger> queuedPerLane = new EnumMap<>(Lane.class);
+    private final Map<Lane, Timer> waitTimers = new EnumMap<>(Lane.class);
+    private final AtomicInteger running = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+    private double virtualTime;
+    private long sequence;
+    private boolean shutdown;
+    
+    @Value("${generation.worker.pool-size:4}")
+    private int poolSize;
+    
+    @Value("${generation.worker.queue-capacity:50}")
+    private int queueCapacity;
+    
+    @Value("${generation.scheduler.weight.priority:8}")
+    private double priorityWeight;
+    
+    @Value("${generation.scheduler.weight.standard:1}")
+    private double standardWeight;
+    
+    @Value("${generation.scheduler.weight.batch:1}")
+    private double batchWeight;
+    
+    @Value("${generation.scheduler.priority-user-ids:}")
+    private Set<Long> priorityUserIds;
+    
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    
+    @PostConstruct
+    public void init() {
+        for (Lane lane : Lane.values()) {
+            String tag = lane.name().toLowerCase(Locale.ROOT);
+            AtomicInteger queued = new AtomicInteger();
+            queuedPerLane.put(lane, queued);
+            Gauge.builder("generation.scheduler.queued", queued, AtomicInteger::get).tag("lane", tag).register(meterRegistry);
+            waitTimers.put(lane, Timer.builder("generation.scheduler.wait").tag("lane", tag)
+                    .publishPercentiles(0.5, 0.95).register(meterRegistry));
+        }
+        Gauge.builder("generation.scheduler.running", running, AtomicInteger::get).register(meterRegistry);
+        
+        // Daemon (virtual threads always are): a worker stuck in an AI call never keeps the JVM alive
+        Thread.Builder builder = virtualThreads
+                ? Thread.ofVirtual().name("book-gen-", 1)
+                : Thread.ofPlatform().daemon().name("book-gen-", 1);
+        for (int i = 0; i < poolSize; i++) {
+            workers.add(builder.start(this::work));
+        }
+        log.info("Generation scheduler started: {} {} workers, queue capacity {}, lane weights priority={} standard={} batch={}",
+                poolSize, virtualThreads ? "virtual" : "platform", queueCapacity, priorityWeight, standardWeight, batchWeight);
+    }
+    
+    /**
+     * Stops taking new work, lets the workers drain the queue and waits up to 30 seconds for them.
+     * Generation jobs have already been cancelled and handed back by {@link GenerationJobService}
+     * by then, so this mostly waits for their workers to notice.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+    }
+    
+    /**
+     * The lane for interactive work by this user: admins and configured users get the priority lane.
+     */
+    public Lane laneFor(UserEntity user) {
+        return laneFor(user, Lane.STANDARD);
+    }
+    
+    /**
+     * Same as {@link #laneFor(UserEntity)}, with {@code defaultLane} for everyone without priority.
+     */
+    public Lane laneFor(UserEntity user, Lane defaultLane) {
+        boolean priority = Boolean.TRUE.equals(user.getIsAdmin()) || priorityUserIds.contains(user.getId());
+        return priority ? Lane.PRIORITY : defaultLane;
+    }
+    
+    /**
+     * Queues a task for the given user and lane.
+     *
+     * @return a ticket that reports the task's queue position
+     * @throws TaskRejectedException if the queue is full or the scheduler is shutting down
+     */
+    public Ticket submit(Long userId, Lane lane, Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new TaskRejectedException("Generation scheduler is shutting down");
+            }
+            if (queue.size() >= queueCapacity) {
+                throw new TaskRejectedException("Generation queue is full (" + queueCapacity + " tasks)");
+            }
+            String flow = lane + ":" + userId;
+            double tag = Math.max(virtualTime, flowTags.getOrDefault(flow, 0.0)) + 1.0 / weight(lane);
+            flowTags.put(flow, tag);
+            Ticket ticket = new Ticket(userId, lane, task, tag, sequence++);
+            queue.add(ticket);
+            queuedPerLane.get(lane).incrementAndGet();
+            workAvailable.signal();
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * An {@link Executor} that queues every task for the given user and lane.
+     */
+    public Executor executor(Long userId, Lane lane) {
+        return task -> submit(userId, lane, task);
+    }
+    
+    /**
+     * How many more tasks would start right away: idle workers not already spoken for by queued tasks.
+     */
+    public int freeWorkers() {
+        lock.lock();
+        try {
+            return shutdown ? 0 : Math.max(0, poolSize - running.get() - queue.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * The configured weight of a lane: its share of turns relative to the other lanes.
+     */
+    public double weight(Lane lane) {
+        double weight = switch (lane) {
+            case PRIORITY -> priorityWeight;
+            case STANDARD -> standardWeight;
+            case BATCH -> batchWeight;
+        };
+        return weight > 0 ? weight : 1;
+    }
+    
+    private void work() {
+        while (true) {
+            Ticket ticket;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !shutdown) {
+                    workAvailable.awaitUninterruptibly();
+                }
+                ticket = queue.poll();
+                if (ticket == null) {
+                    return;
+                }
+                virtualTime = ticket.tag;
+                flowTags.values().removeIf(tag -> tag <= virtualTime);
+                ticket.started = true;
+                // Counted under the lock, so freeWorkers() never sees the task in neither place
+                running.incrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+            
+            queuedPerLane.get(ticket.lane).decrementAndGet();
+            waitTimers.get(ticket.lane).record(System.nanoTime() - ticket.queuedNanos, TimeUnit.NANOSECONDS);
+            try {
+                ticket.task.run();
+            } catch (RuntimeException e) {
+                log.error("Generation task failed: {}", e.getMessage(), e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * A queued task.
+     */
+    public class Ticket implements Comparable<Ticket> {
+        private final Long userId;
+        private final Lane lane;
+        private final Runnable task;
+        private final double tag;
+        private final long seq;
+        private final long queuedNanos = System.nanoTime();
+        private volatile boolean started;
+        
+        private Ticket(Long userId, Lane lane, Runnable task, double tag, long seq) {
+            this.userId = userId;
+            this.lane = lane;
+            this.task = task;
+            this.tag = tag;
+            this.seq = seq;
+        }
+        
+        public Lane getLane() {
+            return lane;
+        }
+        
+        /**
+         * Position in the queue (1 = next to run), or null once a worker has picked the task up.
+         */
+        public Integer queuePosition() {
+            if (started) {
+                return null;
+            }
+            lock.lock();
+            try {
+                if (started) {
+                    return null;
+                }
+                int position = 1;
+                for (Ticket other : queue) {
+                    if (other.compareTo(this) < 0) {
+                        position++;
+                    }
+                }
+                return position;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Removes the task from the queue if no worker has picked it up yet.
+         *
+         * @return true if the task was removed and will never run
+         */
+        public boolean cancel() {
+            lock.lock();
+            try {
+                if (started || !queue.remove(this)) {
+                    return false;
+                }
+                started = true;
+                queuedPerLane.get(lane).decrementAndGet();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        @Override
+        public int compareTo(Ticket other) {
+            int byTag = Double.compare(tag, other.tag);
+            return byTag != 0 ? byTag : Long.compare(seq, other.seq);
+        }
+    }
+}
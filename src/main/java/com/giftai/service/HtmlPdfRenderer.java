@@ -0,0 +1,147 @@
+package com.giftai.service;
+
+import com.giftai.model.BookDocument;
+import com.itextpdf.html2pdf.HtmlConverter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+
+/**
+ * Renders the book as an HTML page with print CSS and converts it with html2pdf.
+ */
+@Component
+@RequiredArgsConstructor
+public class HtmlPdfRenderer implements PdfRenderer {
+    
+    private final FontProviderCache fontProviderCache;
+    
+    @Override
+    public String getName() {
+        return "html";
+    }
+    
+    @Override
+    public void render(BookDocument document, String language, OutputStream out) {
+        String htmlContent = convertToHtml(document, language);
+        // Fonts come from the shared cache, limited to the scripts used in the book
+        HtmlConverter.convertToPdf(htmlContent, out, fontProviderCache.converterProperties(htmlContent));
+    }
+    
+    private String convertToHtml(BookDocument document, String language) {
+        StringBuilder htmlBuilder = new StringBuilder();
+        if (document.getTitle() != null) {
+            htmlBuilder.append("<h1 class=\"book-title\">").append(escape(document.getTitle())).append("</h1>\n");
+        }
+        if (document.getDedication() != null) {
+            htmlBuilder.append("<div class=\"dedication\">").append(escape(document.getDedication())).append("</div>\n");
+        }
+        for (BookDocument.Chapter chapter : document.getChapters()) {
+            if (chapter.getTitle() != null) {
+                htmlBuilder.append("<h2 class=\"chapter-title\">").append(escape(chapter.getTitle())).append("</h2>\n");
+            }
+            for (BookDocument.Block block : chapter.getBlocks()) {
+                String text = escape(block.getText());
+                switch (block.getType()) {
+                    case SECTION_TITLE -> htmlBuilder.append("<h3 class=\"section-title\">").append(text).append("</h3>\n");
+                    case PARAGRAPH -> htmlBuilder.append("<p class=\"story-text\">").append(text).append("</p>\n");
+                }
+            }
+        }
+        
+        String htmlContent = htmlBuilder.toString();
+        
+        // Determine text direction based on language
+        String textDirection = "ltr";
+        String textAlign = "justify";
+        if (PdfRenderer.isRightToLeft(language)) {
+            textDirection = "rtl";
+            textAlign = "right";
+        }
+        
+        return "<!DOCTYPE html>" +
+            "<html lang=\"" + (language != null ? language.toLowerCase() : "en") + "\" dir=\"" + textDirection + "\">" +
+            "<head>" +
+            "<meta charset='UTF-8'>" +
+            "<meta name='viewport' content='width=device-width, initial-scale=1.0'>" +
+            "<style>" +
+            "@page { " +
+            "  size: A5; " +
+            "  margin: 2cm 2.5cm; " +
+            "  @top-center { content: element(header); } " +
+            "  @bottom-center { content: element(footer); } " +
+            "}" +
+            "body { " +
+            "  font-family: 'Times New Roman', 'DejaVu Serif', 'Liberation Serif', serif; " +
+            "  padding: 0; " +
+            "  line-height: 1.8; " +
+            "  font-size: 11pt; " +
+            "  color: #2c3e50; " +
+            "  text-align: " + textAlign + "; " +
+            "  direction: " + textDirection + "; " +
+            "  orphans: 3; " +
+            "  widows: 3; " +
+            "}" +
+            ".book-title { " +
+            "  text-align: center; " +
+            "  color: #8b5cf6; " +
+            "  margin: 20px 0 10px 0; " +
+            "  font-size: 22pt; " +
+            "  font-weight: bold; " +
+            "}" +
+            ".dedication { " +
+            "  text-align: center; " +
+            "  font-style: italic; " +
+            "  margin: 0 0 30px 0; " +
+            "  white-space: pre-line; " +
+            "}" +
+            ".chapter-title { " +
+            "  text-align: center; " +
+            "  color: #8b5cf6; " +
+            "  margin: 30px 0 20px 0; " +
+            "  font-size: 18pt; " +
+            "  font-weight: bold; " +
+            "  page-break-after: avoid; " +
+            "  page-break-before: auto; " +
+            "}" +
+            ".section-title { " +
+            "  text-align: center; " +
+            "  color: #a78bfa; " +
+            "  margin: 20px 0 15px 0; " +
+            "  font-size: 14pt; " +
+            "  font-weight: bold; " +
+            "  font-style: italic; " +
+            "  page-break-after: avoid; " +
+            "}" +
+            ".story-text { " +
+            "  margin-bottom: 12px; " +
+            "  text-indent: 1.5em; " +
+            "  text-align: justify; " +
+            "  orphans: 3; " +
+            "  widows: 3; " +
+            "  page-break-inside: avoid; " +
+            "}" +
+            ".story-text:first-of-type { text-indent: 0; }" +
+            ".story-text:first-letter { " +
+            "  font-size: 1.5em; " +
+            "  font-weight: bold; " +
+            "  color: #8b5cf6; " +
+            "  float: left; " +
+            "  line-height: 1; " +
+            "  margin-right: 3px; " +
+            "}" +
+            "</style>" +
+            "</head>" +
+            "<body>" +
+            htmlContent +
+            "</body>" +
+            "</html>";
+    }
+    
+    private static String escape(String text) {
+        return text
+            .replace("&", "&amp;")
+            .replace("<", "&lt;")
+            .replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,138 @@
+package com.giftai.service;
+
+import com.giftai.entity.IdempotencyKeyEntity;
+import com.giftai.model.BookRequest;
+import com.giftai.repository.IdempotencyKeyRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps {@code Idempotency-Key} headers to the generation job (and later the book) they started,
+ * so client retries get the original result instead of a second LLM call. Keys are scoped to
+ * the user, bound to the request body they were first used with, and expire after the TTL.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+    
+    public static final int MAX_KEY_LENGTH = 255;
+    
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final BookService bookService;
+    private final AtomicLong nextPurgeNanos = new AtomicLong(System.nanoTime());
+    
+    @Value("${generation.idempotency.ttl-hours:24}")
+    private long ttlHours;
+    
+    /**
+     * Thrown when a key is reused with a different request body.
+     */
+    public static class KeyReusedException extends RuntimeException {
+        public KeyReusedException() {
+            super("Idempotency-Key was already used with a different request");
+        }
+    }
+    
+    public String keyHash(Long userId, String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((userId + ":" + key).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * The unexpired binding of the key, without claiming it.
+     *
+     * @throws KeyReusedException if the key is bound to a different request body
+     */
+    public Optional<IdempotencyKeyEntity> find(String keyHash, BookRequest request) {
+        Optional<IdempotencyKeyEntity> existing = idempotencyKeyRepository.findById(keyHash)
+                .filter(binding -> !binding.getExpiresAt().isBefore(LocalDateTime.now()));
+        if (existing.isPresent() && !existing.get().getRequestHash().equals(bookService.fingerprint(request))) {
+            throw new KeyReusedException();
+        }
+        return existing;
+    }
+    
+    /**
+     * Claims the key for a new job.
+     *
+     * @return empty if the key is now bound to {@code jobId}, otherwise the existing binding
+     * @throws KeyReusedException if the key is bound to a different request body
+     */
+    public Optional<IdempotencyKeyEntity> claim(String keyHash, Long userId, BookRequest request, String jobId) {
+        purgeExpired();
+        String requestHash = bookService.fingerprint(request);
+        LocalDateTime now = LocalDateTime.now();
+        
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Optional<IdempotencyKeyEntity> existing = idempotencyKeyRepository.findById(keyHash);
+            if (existing.isPresent() && existing.get().getExpiresAt().isBefore(now)) {
+                idempotencyKeyRepository.deleteByKeyHashAndJobId(keyHash, existing.get().getJobId());
+                existing = Optional.empty();
+            }
+            if (existing.isPresent()) {
+                if (!existing.get().getRequestHash().equals(requestHash)) {
+                    throw new KeyReusedException();
+                }
+                return existing;
+            }
+            try {
+                idempotencyKeyRepository.insert(keyHash, userId, requestHash, jobId, now, now.plusHours(ttlHours));
+                return Optional.empty();
+            } catch (DataIntegrityViolationException e) {
+                // Another request claimed the key at the same moment; read its binding
+                log.debug("Idempotency key claimed concurrently, re-reading");
+            }
+        }
+        throw new IllegalStateException("Could not claim idempotency key");
+    }
+    
+    /**
+     * Rebinds a key whose job was lost (e.g. a restart) or failed before producing a book.
+     *
+     * @return false if another request rebound it first
+     */
+    public boolean replaceJob(String keyHash, String oldJobId, String newJobId) {
+        return idempotencyKeyRepository.replaceJob(keyHash, oldJobId, newJobId, LocalDateTime.now().plusHours(ttlHours)) > 0;
+    }
+    
+    public void completed(String keyHash, String jobId, Long bookId) {
+        idempotencyKeyRepository.setBookId(keyHash, jobId, bookId);
+    }
+    
+    /**
+     * Frees the key after a failed generation so a retry can start a new one.
+     */
+    public void release(String keyHash, String jobId) {
+        idempotencyKeyRepository.deleteByKeyHashAndJobId(keyHash, jobId);
+    }
+    
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        long next = nextPurgeNanos.get();
+        if (now - next < 0 || !nextPurgeNanos.compareAndSet(next, now + TimeUnit.MINUTES.toNanos(10))) {
+            return;
+        }
+        int removed = idempotencyKeyRepository.deleteExpired(LocalDateTime.now());
+        if (removed > 0) {
+            log.info("Removed {} expired idempotency keys", removed);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.giftai.service;
+
+import com.giftai.model.BookDocument;
+import com.itextpdf.kernel.colors.Color;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Text;
+import com.itextpdf.layout.properties.BaseDirection;
+import com.itextpdf.layout.properties.LineHeight;
+import com.itextpdf.layout.properties.ParagraphOrphansControl;
+import com.itextpdf.layout.properties.ParagraphWidowsControl;
+import com.itextpdf.layout.properties.Property;
+import com.itextpdf.layout.properties.TextAlignment;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.OutputStream;
+
+/**
+ * Builds the book layout directly with the iText layout API, without generating and parsing
+ * HTML and CSS. Mirrors the print stylesheet of {@link HtmlPdfRenderer}: A5 pages, serif body
+ * text with justified paragraphs, centred purple title and headings and a coloured first letter.
+ */
+@Component
+@RequiredArgsConstructor
+public class LayoutPdfRenderer implements PdfRenderer {
+    
+    private static final float CM = 28.3465f;
+    private static final float PX = 0.75f; // CSS px in points
+    private static final float FONT_SIZE = 11;
+    private static final float LINE_HEIGHT = 1.8f;
+    private static final Color TEXT_COLOR = new DeviceRgb(0x2c, 0x3e, 0x50);
+    private static final Color CHAPTER_COLOR = new DeviceRgb(0x8b, 0x5c, 0xf6);
+    private static final Color SECTION_COLOR = new DeviceRgb(0xa7, 0x8b, 0xfa);
+    private static final String[] FONT_FAMILIES = {"Times New Roman", "DejaVu Serif", "Liberation Serif", "serif"};
+    
+    private final FontProviderCache fontProviderCache;
+    
+    @Override
+    public String getName() {
+        return "layout";
+    }
+    
+    @Override
+    public void render(BookDocument document, String language, OutputStream out) {
+        PdfDocument pdf = new PdfDocument(new PdfWriter(out));
+        try (Document layout = new Document(pdf, PageSize.A5)) {
+            layout.setMargins(2 * CM, 2.5f * CM, 2 * CM, 2.5f * CM);
+            layout.setFontProvider(fontProviderCache.fontProvider(textOf(document)));
+            layout.setFontFamily(FONT_FAMILIES);
+            layout.setFontSize(FONT_SIZE);
+            layout.setFontColor(TEXT_COLOR);
+            // Like CSS, adjacent vertical margins overlap instead of adding up
+            layout.setProperty(Property.COLLAPSING_MARGINS, true);
+            if (PdfRenderer.isRightToLeft(language)) {
+                layout.setBaseDirection(BaseDirection.RIGHT_TO_LEFT);
+            }
+            
+            if (document.getTitle() != null) {
+                layout.add(heading(document.getTitle(), 22, CHAPTER_COLOR, 20 * PX, 10 * PX, false));
+            }
+            if (document.getDedication() != null) {
+                Paragraph dedication = new Paragraph(document.getDedication())
+                        .setTextAlignment(TextAlignment.CENTER)
+                        .setMarginTop(0)
+                        .setMarginBottom(30 * PX);
+                dedication.setProperty(Property.FONT_STYLE, "italic");
+                dedication.setProperty(Property.LINE_HEIGHT, LineHeight.createMultipliedValue(LINE_HEIGHT));
+                layout.add(dedication);
+            }
+            boolean firstParagraph = true;
+            for (BookDocument.Chapter chapter : document.getChapters()) {
+                if (chapter.getTitle() != null) {
+                    layout.add(heading(chapter.getTitle(), 18, CHAPTER_COLOR, 30 * PX, 20 * PX, false));
+                }
+                for (BookDocument.Block block : chapter.getBlocks()) {
+                    switch (block.getType()) {
+                        case SECTION_TITLE -> layout.add(heading(block.getText(), 14, SECTION_COLOR, 20 * PX, 15 * PX, true));
+                        case PARAGRAPH -> {
+                            layout.add(paragraph(block.getText(), firstParagraph));
+                            firstParagraph = false;
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * All text of the book, to pick the fonts for the scripts in it.
+     */
+    private static String textOf(BookDocument document) {
+        StringBuilder text = new StringBuilder();
+        if (document.getTitle() != null) {
+            text.append(document.getTitle()).append('\n');
+        }
+        if (document.getDedication() != null) {
+            text.append(document.getDedication()).append('\n');
+        }
+        for (BookDocument.Chapter chapter : document.getChapters()) {
+            if (chapter.getTitle() != null) {
+                text.append(chapter.getTitle()).append('\n');
+            }
+            chapter.getBlocks().forEach(block -> text.append(block.getText()).append('\n'));
+        }
+        return text.toString();
+    }
+    
+    private Paragraph heading(String text, float fontSize, Color color, float marginTop, float marginBottom, boolean italic) {
+        Paragraph heading = new Paragraph(text)
+                .setFontSize(fontSize)
+                .setFontColor(color)
+                .setTextAlignment(TextAlignment.CENTER)
+                .setMarginTop(marginTop)
+                .setMarginBottom(marginBottom)
+                .setKeepWithNext(true);
+        // Weight and style select the bold / italic font face instead of simulating them
+        heading.setProperty(Property.FONT_WEIGHT, "bold");
+        if (italic) {
+            heading.setProperty(Property.FONT_STYLE, "italic");
+        }
+        heading.setProperty(Property.LINE_HEIGHT, LineHeight.createMultipliedValue(LINE_HEIGHT));
+        return heading;
+    }
+    
+    private Paragraph paragraph(String text, boolean first) {
+        Paragraph paragraph = new Paragraph()
+                .setTextAlignment(TextAlignment.JUSTIFIED)
+                .setMarginTop(FONT_SIZE)
+                .setMarginBottom(12 * PX)
+                .setFirstLineIndent(first ? 0 : 1.5f * FONT_SIZE)
+                .setKeepTogether(true)
+                .setOrphansControl(new ParagraphOrphansControl(3))
+                .setWidowsControl(new ParagraphWidowsControl(3, 2, false));
+        paragraph.setProperty(Property.LINE_HEIGHT, LineHeight.createMultipliedValue(LINE_HEIGHT));
+        
+        int firstLetterLength = Character.charCount(text.codePointAt(0));
+        Text firstLetter = new Text(text.substring(0, firstLetterLength))
+                .setFontSize(1.5f * FONT_SIZE)
+                .setFontColor(CHAPTER_COLOR);
+        firstLetter.setProperty(Property.FONT_WEIGHT, "bold");
+        paragraph.add(firstLetter);
+        paragraph.add(new Text(text.substring(firstLetterLength)));
+        return paragraph;
+    }
+}
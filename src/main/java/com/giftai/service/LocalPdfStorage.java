@@ -0,0 +1,160 @@
+package com.giftai.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Keeps PDFs on the local disk under {@code pdf.storage.local.root}, in two levels of hash-prefix
+ * directories so no directory grows past a few entries. A PDF is written and synced to a temp file
+ * in the same file system first and then renamed into place, so a crash never leaves a partial PDF
+ * under its key. Identical PDFs are stored once.
+ * <p>
+ * Books rendered before the sharded layout keep working: their {@code pdfPath} is a path under the
+ * root ({@code generated-pdfs/book_1_123.pdf}) and is resolved as such.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.storage.type", havingValue = "local", matchIfMissing = true)
+public class LocalPdfStorage implements PdfStorage {
+    
+    @Value("${pdf.storage.local.root:generated-pdfs}")
+    private String rootDir;
+    
+    private Path root;
+    private Path tempDir;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(rootDir).toAbsolutePath().normalize();
+        tempDir = root.resolve(".tmp");
+        Files.createDirectories(tempDir);
+        // Leftovers of renders interrupted by a crash
+        Instant cutoff = Instant.now().minus(Duration.ofHours(1));
+        try (Stream<Path> temps = Files.list(tempDir)) {
+            temps.filter(temp -> {
+                try {
+                    return Files.getLastModifiedTime(temp).toInstant().isBefore(cutoff);
+                } catch (IOException e) {
+                    return false;
+                }
+            }).forEach(temp -> temp.toFile().delete());
+        }
+        log.info("PDF storage: local disk at {}", root);
+    }
+    
+    @Override
+    public String getName() {
+        return "local";
+    }
+    
+    @Override
+    public String store(Content content) throws IOException {
+        MessageDigest digest = sha256();
+        Path temp = Files.createTempFile(tempDir, "pdf-", ".part");
+        try {
+            FileOutputStream file = new FileOutputStream(temp.toFile());
+            try (file) {
+                DigestOutputStream out = new DigestOutputStream(new BufferedOutputStream(file, 64 * 1024), digest);
+                // Renderers close their stream; keep the file open until it is synced
+                content.writeTo(new KeepOpenOutputStream(out));
+                out.flush();
+                file.getFD().sync();
+            }
+            
+            String key = PdfStorage.keyOf(digest.digest());
+            Path target = root.resolve(key);
+            if (Files.exists(target)) {
+                return key;
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    @Override
+    public File localFile(String key) {
+        return resolve(key).toFile();
+    }
+    
+    @Override
+    public URI downloadUrl(String key, String fileName) {
+        return null;
+    }
+    
+    @Override
+    public boolean exists(String key) {
+        return Files.isRegularFile(resolve(key));
+    }
+    
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+    
+    private Path resolve(String key) {
+        Path path = (key.startsWith(rootDir + "/") || key.startsWith(rootDir + File.separator)
+                ? Paths.get(key).toAbsolutePath()
+                : root.resolve(key)).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("PDF key outside of the storage root: " + key);
+        }
+        return path;
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Passes writes through but turns close into flush.
+     */
+    private static class KeepOpenOutputStream extends FilterOutputStream {
+        
+        KeepOpenOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
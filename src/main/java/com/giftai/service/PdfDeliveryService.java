@@ -0,0 +1,381 @@
+package com.giftai.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.util.UriUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Sends stored PDF files over HTTP with validators and byte ranges. Every response has a strong
+ * ETag (a hash of the file) and {@code Last-Modified}, so conditional requests get a 304 and
+ * resumed or partial downloads (single and multiple ranges) get a 206. The bytes go from the file
+ * to the socket with Tomcat's sendfile when the connector supports it, otherwise with
+ * {@link FileChannel#transferTo}, so the PDF never passes through heap buffers.
+ * <p>
+ * Behind nginx (or Apache / lighttpd) the bytes can be left to the proxy instead: with
+ * {@code pdf.delivery.mode} set to {@code x-accel-redirect} or {@code x-sendfile} the response
+ * only names the file and the proxy serves it, ranges and all. The proxy announces itself with
+ * an {@code X-Sendfile-Type} request header naming the same mode; requests without it (e.g.
+ * straight to the app when testing locally) are served directly as above. PDFs in a remote
+ * {@link PdfStorage} (S3) are not sent by the app at all: the client is redirected to a short-lived
+ * download URL.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PdfDeliveryService {
+    
+    public enum Mode { DIRECT, X_ACCEL_REDIRECT, X_SENDFILE }
+    
+    private static final String SENDFILE_TYPE_HEADER = "X-Sendfile-Type";
+    private static final Pattern CONTENT_ADDRESSED = Pattern.compile("[0-9a-f]{64}\\.pdf");
+    
+    // Tomcat request attributes for handing a file to the connector's sendfile support
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    
+    // PDFs are never rewritten in place, so a hash stays valid as long as size and mtime match
+    private final Map<String, FileTag> etags = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final PdfStorage pdfStorage;
+    
+    @Value("${pdf.storage.local.root:generated-pdfs}")
+    private String localRoot;
+    
+    @Value("${pdf.delivery.mode:direct}")
+    private String modeName;
+    
+    // nginx internal location that maps onto the PDF directory
+    @Value("${pdf.delivery.accel-location:/protected-pdfs/}")
+    private String accelLocation;
+    
+    private Mode mode;
+    private Path pdfRoot;
+    
+    @PostConstruct
+    public void init() {
+        mode = Mode.valueOf(modeName.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        pdfRoot = Paths.get(localRoot).toAbsolutePath().normalize();
+        if (!accelLocation.endsWith("/")) {
+            accelLocation = accelLocation + "/";
+        }
+        log.info("PDF delivery mode: {}", mode);
+    }
+    
+    /**
+     * Delivers the PDF stored under the key: redirects to the storage if it hands out download
+     * URLs, hands the file to the proxy if offloading is configured and the request came through
+     * a proxy that supports it, and otherwise sends it with {@link #send}.
+     *
+     * @return true if the response counts as a download (see {@link #send})
+     * @throws FileNotFoundException if the PDF is not on the local disk where it should be
+     */
+    public boolean deliver(String key, String fileName, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        File file = pdfStorage.localFile(key);
+        if (file == null) {
+            // The client fetches the PDF from the storage itself, with a URL that soon expires
+            response.setStatus(HttpStatus.FOUND.value());
+            response.setHeader(HttpHeaders.LOCATION, pdfStorage.downloadUrl(key, fileName).toString());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+            meterRegistry.counter("pdf.delivery", "mode", "redirect").increment();
+            return isFromStart(request);
+        }
+        if (!file.isFile()) {
+            throw new FileNotFoundException("PDF not found: " + key);
+        }
+        if (mode != Mode.DIRECT && headerName(mode).equalsIgnoreCase(request.getHeader(SENDFILE_TYPE_HEADER))) {
+            offload(file, fileName, response);
+            meterRegistry.counter("pdf.delivery", "mode", "offload").increment();
+            // The proxy answers ranges and revalidations itself
+            return isFromStart(request);
+        }
+        meterRegistry.counter("pdf.delivery", "mode", "direct").increment();
+        return send(file, fileName, request, response);
+    }
+    
+    /**
+     * Whether a request answered by someone else (proxy, storage) asks for the start of the file.
+     */
+    private static boolean isFromStart(HttpServletRequest request) {
+        String range = request.getHeader(HttpHeaders.RANGE);
+        return range == null || range.trim().startsWith("bytes=0-");
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Replies with an empty body and the header that makes the proxy serve the file.
+     */
+    private void offload(File file, String fileName, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"");
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (mode == Mode.X_SENDFILE) {
+            response.setHeader(headerName(mode), path.toString());
+            return;
+        }
+        if (!path.startsWith(pdfRoot)) {
+            throw new IOException("PDF outside of " + pdfRoot + ": " + path);
+        }
+        String relative = pdfRoot.relativize(path).toString().replace(File.separatorChar, '/');
+        response.setHeader(headerName(mode), accelLocation + UriUtils.encodePath(relative, StandardCharsets.UTF_8));
+    }
+    
+    private static String headerName(Mode mode) {
+        return mode == Mode.X_SENDFILE ? "X-Sendfile" : "X-Accel-Redirect";
+    }
+    
+    /**
+     * Writes the file (or the requested ranges of it) to the response, or a 304 / 412 / 416
+     * status if the request's conditions say so.
+     *
+     * @return true if the response carries the start of the file, i.e. counts as a download
+     *         (not for 304s or for ranges that resume a download part-way)
+     */
+    public boolean send(File file, String fileName, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long length = file.length();
+        String etag = etagOf(file);
+        // HTTP dates have second precision
+        long lastModified = file.lastModified() / 1000 * 1000;
+        
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            // 304, or 412 for a failed If-Match / If-Unmodified-Since; ETag and Last-Modified are set
+            return false;
+        }
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileName + "\"");
+        
+        List<long[]> ranges = requestedRanges(request, etag, lastModified, length);
+        if (ranges == null) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+            response.setContentLengthLong(length);
+            sendRegion(file, 0, length, request, response);
+            return true;
+        }
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return false;
+        }
+        
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            sendRegion(file, range[0], range[1] + 1, request, response);
+        } else {
+            sendMultipart(file, ranges, length, request, response);
+        }
+        return ranges.get(0)[0] == 0;
+    }
+    
+    /**
+     * The satisfiable ranges of the request as inclusive [start, end] pairs: null to send the
+     * whole file (no Range header, a stale If-Range, or a range set we choose to ignore) and an
+     * empty list if none of the ranges can be satisfied.
+     */
+    private List<long[]> requestedRanges(HttpServletRequest request, String etag, long lastModified, long length) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            if (date == -1 || date != lastModified) {
+                return null;
+            }
+        }
+        
+        List<HttpRange> parsed;
+        try {
+            parsed = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            // Malformed or too many ranges: the header may be ignored
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : parsed) {
+            long start;
+            long end;
+            try {
+                start = range.getRangeStart(length);
+                end = range.getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (start >= length || start > end) {
+                continue;
+            }
+            ranges.add(new long[] {start, end});
+            total += end - start + 1;
+        }
+        // Overlapping ranges adding up to more than the file are answered with the file itself
+        return total > length ? null : ranges;
+    }
+    
+    private void sendMultipart(File file, List<long[]> ranges, long length,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_PDF_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += end.length;
+        
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                out.write(partHeaders.get(i));
+                transfer(channel, range[0], range[1] + 1, target);
+            }
+            out.write(end);
+        } catch (IOException e) {
+            log.debug("PDF download of {} aborted: {}", file.getName(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Sends bytes [start, end) of the file as the response body, preferably with sendfile.
+     */
+    private void sendRegion(File file, long start, long end, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // Tomcat sends the file from its poller once this request returns
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            transfer(channel, start, end, Channels.newChannel(response.getOutputStream()));
+        } catch (IOException e) {
+            log.debug("PDF download of {} aborted: {}", file.getName(), e.getMessage());
+        }
+    }
+    
+    private static void transfer(FileChannel channel, long start, long end, WritableByteChannel target)
+            throws IOException {
+        long position = start;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new IOException("File ended before the requested range");
+            }
+            position += sent;
+        }
+    }
+    
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+    
+    /**
+     * Strong ETag from the SHA-256 of the file: taken from the name of content-addressed files,
+     * computed once for older ones.
+     */
+    private String etagOf(File file) throws IOException {
+        if (CONTENT_ADDRESSED.matcher(file.getName()).matches()) {
+            return "\"" + file.getName().substring(0, 32) + "\"";
+        }
+        String key = file.getCanonicalPath();
+        long size = file.length();
+        long modified = file.lastModified();
+        FileTag cached = etags.get(key);
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            return cached.etag;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String etag = "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+        etags.put(key, new FileTag(size, modified, etag));
+        return etag;
+    }
+    
+    private static class FileTag {
+        private final long size;
+        private final long modified;
+        private final String etag;
+        
+        FileTag(long size, long modified, String etag) {
+            this.size = size;
+            this.modified = modified;
+            this.etag = etag;
+        }
+    }
+}
@@ -1,185 +1,202 @@
 package com.giftai.service;
 
 import com.giftai.entity.BookEntity;
+import com.giftai.model.BookDocument;
 import com.giftai.repository.BookRepository;
-import com.itextpdf.html2pdf.HtmlConverter;
-import com.itextpdf.html2pdf.ConverterProperties;
-import com.itextpdf.html2pdf.resolver.font.DefaultFontProvider;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Renders book PDFs on a dedicated pool sized to the CPU count, since laying out a PDF is
+ * CPU-bound. The pool's queue is bounded: when it is full the submitting thread (a generation
+ * worker) renders the PDF itself, which slows generation down instead of piling up work.
+ * On shutdown the pool stops taking work and drains what is queued. The layout itself is done by
+ * the {@link PdfRenderer} selected with {@code pdf.render.engine}, and the result goes to the
+ * {@link PdfStorage} selected with {@code pdf.storage.type}.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class PdfGenerationService {
     
     private final BookRepository bookRepository;
-    private static final String PDF_DIR = "generated-pdfs";
+    private final MeterRegistry meterRegistry;
+    private final List<PdfRenderer> renderers;
+    private final FontProviderCache fontProviderCache;
+    private final BookDocumentService bookDocumentService;
+    private final PdfStorage pdfStorage;
     
-    {
-        try {
-            Path pdfPath = Paths.get(PDF_DIR);
-            if (!Files.exists(pdfPath)) {
-                Files.createDirectories(pdfPath);
+    @Value("${pdf.render.pool-size:0}")
+    private int poolSize;
+    
+    @Value("${pdf.render.queue-capacity:100}")
+    private int queueCapacity;
+    
+    @Value("${pdf.render.shutdown-timeout-seconds:60}")
+    private int shutdownTimeoutSeconds;
+    
+    @Value("${pdf.render.engine:html}")
+    private String engine;
+    
+    private PdfRenderer renderer;
+    private ThreadPoolTaskExecutor renderExecutor;
+    private Timer renderSuccessTimer;
+    private Timer renderFailureTimer;
+    private Counter callerRuns;
+    
+    @PostConstruct
+    public void init() {
+        renderer = renderers.stream()
+                .filter(candidate -> candidate.getName().equals(engine))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unknown pdf.render.engine: " + engine));
+        
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        renderExecutor = new ThreadPoolTaskExecutor();
+        renderExecutor.setCorePoolSize(threads);
+        renderExecutor.setMaxPoolSize(threads);
+        renderExecutor.setQueueCapacity(queueCapacity);
+        // When saturated, the submitting thread renders the PDF itself (dropped once shut down)
+        renderExecutor.setRejectedExecutionHandler((task, executor) -> {
+            if (!executor.isShutdown()) {
+                callerRuns.increment();
+                task.run();
             }
-        } catch (IOException e) {
-            log.error("Failed to create PDF directory", e);
-        }
+        });
+        renderExecutor.setWaitForTasksToCompleteOnShutdown(true);
+        renderExecutor.setAwaitTerminationSeconds(shutdownTimeoutSeconds);
+        renderExecutor.setThreadNamePrefix("pdf-render-");
+        renderExecutor.initialize();
+        
+        Gauge.builder("pdf.render.active", renderExecutor, ThreadPoolTaskExecutor::getActiveCount).register(meterRegistry);
+        Gauge.builder("pdf.render.queued", renderExecutor, executor -> executor.getThreadPoolExecutor().getQueue().size())
+                .register(meterRegistry);
+        renderSuccessTimer = renderTimer("success");
+        renderFailureTimer = renderTimer("failure");
+        callerRuns = meterRegistry.counter("pdf.render.caller-runs");
+        log.info("PDF render pool started: {} threads, queue capacity {}, engine {}, storage {}",
+                threads, queueCapacity, engine, pdfStorage.getName());
     }
     
-    @Async
-    public void generatePdfAsync(Long bookId, String content, String bookName, String language) {
-        try {
-            log.info("Starting PDF generation for book ID: {}", bookId);
-            BookEntity book = bookRepository.findById(bookId).orElse(null);
-            if (book == null) {
-                log.error("Book not found for ID: {}", bookId);
-                return;
-            }
-            
-            String lang = language != null ? language : (book.getLanguage() != null ? book.getLanguage() : "English");
-            String pdfPath = generatePdf(content, bookId, bookName, lang);
-            
-            book.setPdfPath(pdfPath);
-            book.setPdfReady(true);
-            bookRepository.save(book);
-            log.info("PDF generated successfully for book ID: {} at path: {}", bookId, pdfPath);
-        } catch (Exception e) {
-            log.error("Error generating PDF for book ID: {}", bookId, e);
-        }
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdown();
     }
     
-    private String generatePdf(String content, Long bookId, String bookName, String language) throws IOException {
-        String fileName = "book_" + bookId + "_" + System.currentTimeMillis() + ".pdf";
-        String filePath = PDF_DIR + File.separator + fileName;
-        
-        // Use improved HTML conversion with proper UTF-8 encoding
-        String htmlContent = convertToHtml(content, bookName, language);
-        
-        FileOutputStream outputStream = new FileOutputStream(filePath);
-        
-        // Configure converter with proper font support for all languages
-        ConverterProperties properties = new ConverterProperties();
-        DefaultFontProvider fontProvider = new DefaultFontProvider(true, true, true);
-        properties.setFontProvider(fontProvider);
-        
-        HtmlConverter.convertToPdf(htmlContent, outputStream, properties);
-        outputStream.close();
-        
-        return filePath;
+    /**
+     * Threads of the render pool, i.e. how many PDFs this instance renders at once.
+     */
+    public int getRenderThreads() {
+        return renderExecutor.getMaxPoolSize();
     }
     
-    private String convertToHtml(String content, String bookName, String language) {
-        // Escape HTML special characters
-        content = content
-            .replace("&", "&amp;")
-            .replace("<", "&lt;")
-            .replace(">", "&gt;");
+    /**
+     * Render pool usage, for the admin endpoints.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", engine);
+        stats.put("storage", pdfStorage.getName());
+        stats.put("threads", renderExecutor.getPoolSize());
+        stats.put("maxThreads", renderExecutor.getMaxPoolSize());
+        stats.put("active", renderExecutor.getActiveCount());
+        stats.put("queued", renderExecutor.getThreadPoolExecutor().getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("completed", renderExecutor.getThreadPoolExecutor().getCompletedTaskCount());
+        stats.put("callerRuns", (long) callerRuns.count());
+        stats.put("fonts", fontProviderCache.getStats());
+        return stats;
+    }
+    
+    private Timer renderTimer(String result) {
+        return Timer.builder("pdf.render.duration")
+                .description("Time to render one book PDF")
+                .tag("engine", engine)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+    
+    /**
+     * Renders the book's PDF on the render pool and marks the book as having it.
+     *
+     * @param document the book's document, or null to load it
+     * @param language the book's language, or null for the one stored with the book
+     * @return completes when the PDF is stored, exceptionally if rendering failed; never completes
+     *         if the pool shut down before the render started
+     */
+    public CompletableFuture<Void> generatePdfAsync(Long bookId, BookDocument document, String language) {
+        return CompletableFuture.runAsync(() -> renderBook(bookId, document, language), renderExecutor);
+    }
+    
+    private void renderBook(Long bookId, BookDocument document, String language) {
+        log.info("Starting PDF generation for book ID: {}", bookId);
+        BookEntity book = bookRepository.findById(bookId).orElse(null);
+        if (book == null) {
+            // Deleted in the meantime: nothing left to render
+            log.warn("Book not found for ID: {}", bookId);
+            return;
+        }
         
-        // Split content into paragraphs and format
-        String[] paragraphs = content.split("\n\n+");
-        StringBuilder htmlBuilder = new StringBuilder();
+        String lang = language != null ? language : (book.getLanguage() != null ? book.getLanguage() : "English");
+        String pdfKey;
+        try {
+            pdfKey = generatePdf(document != null ? document : bookDocumentService.documentOf(book), lang);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         
-        for (String para : paragraphs) {
-            para = para.trim();
-            if (para.isEmpty()) continue;
-            
-            // Check if it's a chapter heading
-            if (para.matches("(?i)^(Chapter|Bölüm|Kapitel|Chapitre|Capítulo|Capitolo|Глава|章|章|الفصل)\\s+\\d+.*")) {
-                htmlBuilder.append("<h2 class=\"chapter-title\">").append(para).append("</h2>\n");
-            } else if (para.matches("^[A-Z][^.!?]*[.!?]$") && para.length() < 100) {
-                // Might be a title or heading
-                htmlBuilder.append("<h3 class=\"section-title\">").append(para).append("</h3>\n");
-            } else {
-                // Regular paragraph
-                para = para.replace("\n", " ");
-                htmlBuilder.append("<p class=\"story-text\">").append(para).append("</p>\n");
+        book.setPdfPath(pdfKey);
+        book.setPdfReady(true);
+        bookRepository.save(book);
+        try {
+            // An identical PDF may have been deleted with its book between storing and saving
+            // (see BookService.deleteBook); now that this book refers to it, it stays
+            if (!pdfStorage.exists(pdfKey)) {
+                log.warn("PDF {} of book {} was deleted while it was saved, storing it again", pdfKey, bookId);
+                pdfKey = generatePdf(document != null ? document : bookDocumentService.documentOf(book), lang);
+                // Renders are not necessarily byte-identical
+                book.setPdfPath(pdfKey);
+                bookRepository.save(book);
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        String htmlContent = htmlBuilder.toString();
-        
-        // Determine text direction based on language
-        String textDirection = "ltr";
-        String textAlign = "justify";
-        if (language != null && (language.equalsIgnoreCase("Arabic") || language.equalsIgnoreCase("Hebrew"))) {
-            textDirection = "rtl";
-            textAlign = "right";
+        log.info("PDF generated successfully for book ID: {} with key: {}", bookId, pdfKey);
+    }
+    
+    /**
+     * Renders the PDF into the storage.
+     *
+     * @return the PDF's storage key
+     */
+    private String generatePdf(BookDocument document, String language) throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String key = pdfStorage.store(out -> renderer.render(document, language, out));
+            success = true;
+            return key;
+        } finally {
+            (success ? renderSuccessTimer : renderFailureTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
-        
-        return "<!DOCTYPE html>" +
-            "<html lang=\"" + (language != null ? language.toLowerCase() : "en") + "\" dir=\"" + textDirection + "\">" +
-            "<head>" +
-            "<meta charset='UTF-8'>" +
-            "<meta name='viewport' content='width=device-width, initial-scale=1.0'>" +
-            "<style>" +
-            "@page { " +
-            "  size: A5; " +
-            "  margin: 2cm 2.5cm; " +
-            "  @top-center { content: element(header); } " +
-            "  @bottom-center { content: element(footer); } " +
-            "}" +
-            "body { " +
-            "  font-family: 'Times New Roman', 'DejaVu Serif', 'Liberation Serif', serif; " +
-            "  padding: 0; " +
-            "  line-height: 1.8; " +
-            "  font-size: 11pt; " +
-            "  color: #2c3e50; " +
-            "  text-align: " + textAlign + "; " +
-            "  direction: " + textDirection + "; " +
-            "  orphans: 3; " +
-            "  widows: 3; " +
-            "}" +
-            ".chapter-title { " +
-            "  text-align: center; " +
-            "  color: #8b5cf6; " +
-            "  margin: 30px 0 20px 0; " +
-            "  font-size: 18pt; " +
-            "  font-weight: bold; " +
-            "  page-break-after: avoid; " +
-            "  page-break-before: auto; " +
-            "}" +
-            ".section-title { " +
-            "  text-align: center; " +
-            "  color: #a78bfa; " +
-            "  margin: 20px 0 15px 0; " +
-            "  font-size: 14pt; " +
-            "  font-weight: bold; " +
-            "  font-style: italic; " +
-            "  page-break-after: avoid; " +
-            "}" +
-            ".story-text { " +
-            "  margin-bottom: 12px; " +
-            "  text-indent: 1.5em; " +
-            "  text-align: justify; " +
-            "  orphans: 3; " +
-            "  widows: 3; " +
-            "  page-break-inside: avoid; " +
-            "}" +
-            ".story-text:first-of-type { text-indent: 0; }" +
-            ".story-text:first-letter { " +
-            "  font-size: 1.5em; " +
-            "  font-weight: bold; " +
-            "  color: #8b5cf6; " +
-            "  float: left; " +
-            "  line-height: 1; " +
-            "  margin-right: 3px; " +
-            "}" +
-            "</style>" +
-            "</head>" +
-            "<body>" +
-            htmlContent +
-            "</body>" +
-            "</html>";
     }
 }
-
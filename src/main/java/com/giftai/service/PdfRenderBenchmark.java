@@ -0,0 +1,121 @@
+package com.giftai.service;
+
+import com.giftai.entity.BookEntity;
+import com.giftai.model.BookDocument;
+import com.giftai.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compares the PDF rendering engines on one book: renders it repeatedly with each engine and
+ * reports throughput, time per render and heap allocated per render. PDFs are discarded.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PdfRenderBenchmark {
+    
+    private static final int WARM_UP_RENDERS = 3;
+    private static final int MAX_ITERATIONS = 100;
+    
+    private final BookRepository bookRepository;
+    private final List<PdfRenderer> renderers;
+    private final BookDocumentService bookDocumentService;
+    
+    /**
+     * Runs the benchmark on the given book.
+     *
+     * @throws IllegalArgumentException if the book does not exist or has no content
+     */
+    public Map<String, Object> run(Long bookId, int iterations) throws IOException {
+        BookEntity book = bookRepository.findById(bookId)
+                .orElseThrow(() -> new IllegalArgumentException("Book not found"));
+        if (book.getContent() == null || book.getContent().isBlank()) {
+            throw new IllegalArgumentException("Book has no content");
+        }
+        int runs = Math.max(1, Math.min(iterations, MAX_ITERATIONS));
+        
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("bookId", bookId);
+        results.put("contentLength", book.getContent().length());
+        results.put("iterations", runs);
+        BookDocument document = bookDocumentService.documentOf(book);
+        String language = book.getLanguage() != null ? book.getLanguage() : "English";
+        for (PdfRenderer renderer : renderers) {
+            results.put(renderer.getName(), measure(renderer, document, language, runs));
+        }
+        log.info("PDF render benchmark on book {}: {}", bookId, results);
+        return results;
+    }
+    
+    private Map<String, Object> measure(PdfRenderer renderer, BookDocument document, String language, int runs) throws IOException {
+        // A platform thread of its own, since allocation is only tracked for platform threads
+        CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        Thread.ofPlatform().name("pdf-benchmark-" + renderer.getName()).start(() -> {
+            try {
+                result.complete(measureOnCurrentThread(renderer, document, language, runs));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Benchmark interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Benchmark failed for engine " + renderer.getName(), e.getCause());
+        }
+    }
+    
+    private Map<String, Object> measureOnCurrentThread(PdfRenderer renderer, BookDocument document, String language,
+                                                       int runs) throws IOException {
+        for (int i = 0; i < WARM_UP_RENDERS; i++) {
+            renderer.render(document, language, new CountingOutputStream());
+        }
+        
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long pdfBytes = 0;
+        for (int i = 0; i < runs; i++) {
+            CountingOutputStream out = new CountingOutputStream();
+            renderer.render(document, language, out);
+            pdfBytes = out.count;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rendersPerSecond", runs * 1_000_000_000.0 / elapsedNanos);
+        stats.put("avgMillis", elapsedNanos / 1_000_000.0 / runs);
+        stats.put("avgAllocatedBytes", allocated / runs);
+        stats.put("pdfBytes", pdfBytes);
+        return stats;
+    }
+    
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.giftai.service;
+
+import com.giftai.entity.PdfRenderJobEntity;
+import com.giftai.model.BookDocument;
+import com.giftai.repository.PdfRenderJobRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps every PDF render in the {@code pdf_render_jobs} table so none is lost when an instance dies.
+ * A job is queued in the same transaction that saves its book, moves to RUNNING when an attempt
+ * starts and to DONE when the PDF is stored. A failed attempt is retried with exponential backoff
+ * ({@code retry-base-seconds} doubling per attempt, capped at {@code retry-max-seconds}); after
+ * {@code max-attempts} the job is DEAD and only an admin can retry it.
+ * <p>
+ * Every instance polls the table and claims due jobs with {@code SELECT ... FOR UPDATE SKIP LOCKED},
+ * up to what its render pool can take, so instances share the work without ever claiming the same
+ * job. A running job is leased to its instance (see {@link ClusterNode}) and the lease renewed by a
+ * heartbeat; a job whose lease ran out counts as a failed attempt and is retried by any instance.
+ * Done jobs are pruned once they are older than {@code retention-days}; a book's job is deleted
+ * along with the book.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PdfRenderJobService {
+    
+    private static final String INTERRUPTED = "Lease expired: the instance running it stopped or crashed";
+    private static final int RECLAIM_BATCH = 100;
+    
+    private final PdfRenderJobRepository jobRepository;
+    private final PdfGenerationService pdfGenerationService;
+    private final ClusterNode clusterNode;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    // Jobs running on this instance, whose leases the heartbeat renews
+    private final Set<Long> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextPruneNanos = new AtomicLong(System.nanoTime());
+    private ScheduledThreadPoolExecutor poller;
+    
+    @Value("${pdf.jobs.max-attempts:5}")
+    private int maxAttempts;
+    
+    @Value("${pdf.jobs.retry-base-seconds:10}")
+    private long retryBaseSeconds;
+    
+    @Value("${pdf.jobs.retry-max-seconds:600}")
+    private long retryMaxSeconds;
+    
+    @Value("${pdf.jobs.poll-seconds:5}")
+    private long pollSeconds;
+    
+    @Value("${pdf.jobs.max-in-flight:0}")
+    private int maxInFlight;
+    
+    @Value("${pdf.jobs.retention-days:7}")
+    private long retentionDays;
+    
+    /**
+     * Queues renders for books that have neither a PDF nor a job, then starts polling for due jobs
+     * and renewing the leases of the ones running here.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        recover();
+        // Two threads, so a slow poll never holds up a lease renewal
+        poller = new ScheduledThreadPoolExecutor(2, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-render-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollSafely, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+        long heartbeat = clusterNode.getHeartbeatSeconds();
+        poller.scheduleWithFixedDelay(this::heartbeatSafely, heartbeat, heartbeat, TimeUnit.SECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+    
+    /**
+     * Queues the render of a book's PDF, replacing an earlier job for the book. Joins the caller's
+     * transaction, so the job is only there if the book is; call {@link #dispatch} once committed.
+     *
+     * @return the job id
+     */
+    @Transactional
+    public Long enqueue(Long bookId, String language) {
+        PdfRenderJobEntity job = jobRepository.findByBookId(bookId)
+                .orElseGet(() -> PdfRenderJobEntity.builder().bookId(bookId).build());
+        job.setLanguage(language);
+        job.setStatus(PdfRenderJobEntity.Status.QUEUED);
+        job.setAttempts(0);
+        job.setNextAttemptAt(LocalDateTime.now());
+        job.setLastError(null);
+        job.setLeaseOwner(null);
+        job.setLeaseExpiresAt(null);
+        return jobRepository.save(job).getId();
+    }
+    
+    /**
+     * Deletes the render job of a book that is being deleted. Joins the caller's transaction.
+     */
+    @Transactional
+    public void deleteForBook(Long bookId) {
+        jobRepository.deleteByBookId(bookId);
+    }
+    
+    /**
+     * Starts the first attempt of a queued job on this instance right away instead of waiting for a
+     * poller. Not bounded by {@code max-in-flight}: the render pool makes the caller render the PDF
+     * itself when it is full.
+     *
+     * @param document the book's document if at hand, null to load it
+     * @return completes when the attempt is over, whether it succeeded or not
+     */
+    public CompletableFuture<Void> dispatch(Long jobId, BookDocument document) {
+        return jobRepository.findById(jobId)
+                .map(job -> attempt(job, document))
+                .orElse(CompletableFuture.completedFuture(null));
+    }
+    
+    /**
+     * Render state of a book's PDF (QUEUED, RUNNING, DONE, FAILED or DEAD), or null if it has no job.
+     */
+    public String getStatus(Long bookId) {
+        return jobRepository.findByBookId(bookId).map(job -> job.getStatus().name()).orElse(null);
+    }
+    
+    /**
+     * Puts a dead job back in the queue with fresh attempts.
+     *
+     * @return false if there is no such job or it is not dead
+     */
+    public boolean retryDead(Long jobId) {
+        PdfRenderJobEntity job = jobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != PdfRenderJobEntity.Status.DEAD) {
+            return false;
+        }
+        dispatch(enqueue(job.getBookId(), job.getLanguage()), null);
+        log.info("PDF render job {} (book {}) retried by an admin", jobId, job.getBookId());
+        return true;
+    }
+    
+    /**
+     * Job counts per state and the most recent dead jobs, for the admin endpoints.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (PdfRenderJobEntity.Status status : PdfRenderJobEntity.Status.values()) {
+            stats.put(status.name().toLowerCase(Locale.ROOT), jobRepository.countByStatus(status));
+        }
+        stats.put("maxAttempts", maxAttempts);
+        stats.put("node", clusterNode.getId());
+        stats.put("runningHere", leased.size());
+        stats.put("maxInFlight", maxInFlight());
+        stats.put("deadJobs", jobRepository.findTop100ByStatusOrderByUpdatedAtDesc(PdfRenderJobEntity.Status.DEAD).stream()
+                .map(job -> {
+                    Map<String, Object> dead = new LinkedHashMap<>();
+                    dead.put("jobId", job.getId());
+                    dead.put("bookId", job.getBookId());
+                    dead.put("attempts", job.getAttempts());
+                    dead.put("lastError", job.getLastError());
+                    dead.put("updatedAt", job.getUpdatedAt());
+                    return dead;
+                })
+                .collect(Collectors.toList()));
+        return stats;
+    }
+    
+    private void recover() {
+        int queued = 0;
+        for (Long bookId : jobRepository.findBookIdsWithoutPdfOrJob()) {
+            try {
+                enqueue(bookId, null);
+                queued++;
+            } catch (DataIntegrityViolationException e) {
+                // Another instance starting at the same time queued it first
+                log.debug("Render job for book {} already queued", bookId);
+            }
+        }
+        log.info("PDF render jobs: {} books without a job queued", queued);
+        poll();
+    }
+    
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (Exception e) {
+            log.error("Polling PDF render jobs failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Retries the jobs whose lease ran out, then claims as many due jobs as this instance has room for.
+     */
+    private void poll() {
+        reclaimExpired();
+        pruneFinishedJobs();
+        int free = maxInFlight() - leased.size();
+        if (free <= 0) {
+            return;
+        }
+        List<PdfRenderJobEntity> claimed = transactionTemplate.execute(status -> {
+            List<Long> ids = jobRepository.lockDue(LocalDateTime.now(), free);
+            if (ids.isEmpty()) {
+                return List.<PdfRenderJobEntity>of();
+            }
+            LocalDateTime now = LocalDateTime.now();
+            jobRepository.start(ids, EnumSet.of(PdfRenderJobEntity.Status.QUEUED, PdfRenderJobEntity.Status.FAILED),
+                    PdfRenderJobEntity.Status.RUNNING, clusterNode.getId(), clusterNode.leaseExpiry(), now);
+            return jobRepository.findAllById(ids);
+        });
+        claimed.forEach(job -> run(job, null));
+    }
+    
+    private void reclaimExpired() {
+        transactionTemplate.executeWithoutResult(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            for (PdfRenderJobEntity job : jobRepository.lockExpired(now, RECLAIM_BATCH)) {
+                // The attempt was counted when it started; the job is locked, so its owner cannot finish it meanwhile
+                boolean dead = job.getAttempts() >= maxAttempts;
+                log.warn("PDF render job {} (book {}) lost its lease on {}, {}", job.getId(), job.getBookId(),
+                        job.getLeaseOwner(), dead ? "giving up" : "retrying");
+                job.setStatus(dead ? PdfRenderJobEntity.Status.DEAD : PdfRenderJobEntity.Status.FAILED);
+                job.setNextAttemptAt(dead ? now : now.plusSeconds(retryDelaySeconds(job.getAttempts())));
+                job.setLastError(INTERRUPTED);
+                job.setLeaseOwner(null);
+                job.setLeaseExpiresAt(null);
+                meterRegistry.counter("pdf.jobs", "result", dead ? "dead" : "retry").increment();
+            }
+        });
+    }
+    
+    private void pruneFinishedJobs() {
+        long now = System.nanoTime();
+        long next = nextPruneNanos.get();
+        if (now - next < 0 || !nextPruneNanos.compareAndSet(next, now + TimeUnit.HOURS.toNanos(1))) {
+            return;
+        }
+        int removed = jobRepository.deleteFinishedBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (removed > 0) {
+            log.info("Removed {} finished or orphaned PDF render jobs", removed);
+        }
+    }
+    
+    private void heartbeatSafely() {
+        try {
+            if (!leased.isEmpty()) {
+                List<Long> ids = new ArrayList<>(leased);
+                int renewed = jobRepository.renew(ids, clusterNode.getId(), clusterNode.leaseExpiry());
+                log.debug("Renewed {} of {} PDF render leases", renewed, ids.size());
+            }
+        } catch (Exception e) {
+            log.error("Renewing PDF render leases failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    private int maxInFlight() {
+        return maxInFlight > 0 ? maxInFlight : 2 * pdfGenerationService.getRenderThreads();
+    }
+    
+    private CompletableFuture<Void> attempt(PdfRenderJobEntity job, BookDocument document) {
+        // Whoever flips the state first runs the attempt (a poller may see a job being dispatched)
+        if (jobRepository.start(List.of(job.getId()), List.of(job.getStatus()), PdfRenderJobEntity.Status.RUNNING,
+                clusterNode.getId(), clusterNode.leaseExpiry(), LocalDateTime.now()) == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        job.setAttempts(job.getAttempts() + 1);
+        return run(job, document);
+    }
+    
+    /**
+     * Renders a job this instance has claimed, holding its lease until the attempt is over.
+     */
+    private CompletableFuture<Void> run(PdfRenderJobEntity job, BookDocument document) {
+        leased.add(job.getId());
+        return pdfGenerationService.generatePdfAsync(job.getBookId(), document, job.getLanguage())
+                .handle((ignored, error) -> {
+                    try {
+                        if (error == null) {
+                            LocalDateTime now = LocalDateTime.now();
+                            if (finish(job, PdfRenderJobEntity.Status.DONE, now, null, now)) {
+                                meterRegistry.counter("pdf.jobs", "result", "done").increment();
+                            }
+                        } else {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            log.error("PDF render of book {} failed (attempt {}/{}): {}",
+                                    job.getBookId(), job.getAttempts(), maxAttempts, cause.getMessage(), cause);
+                            fail(job, cause.getClass().getSimpleName() + ": " + cause.getMessage());
+                        }
+                    } finally {
+                        leased.remove(job.getId());
+                    }
+                    return null;
+                });
+    }
+    
+    /**
+     * Schedules the retry of a job whose attempt failed, or gives up on it.
+     */
+    private void fail(PdfRenderJobEntity job, String error) {
+        LocalDateTime now = LocalDateTime.now();
+        if (job.getAttempts() >= maxAttempts) {
+            if (finish(job, PdfRenderJobEntity.Status.DEAD, now, error, now)) {
+                meterRegistry.counter("pdf.jobs", "result", "dead").increment();
+                log.error("PDF render job {} (book {}) is dead after {} attempts: {}",
+                        job.getId(), job.getBookId(), job.getAttempts(), error);
+            }
+            return;
+        }
+        long delay = retryDelaySeconds(job.getAttempts());
+        if (finish(job, PdfRenderJobEntity.Status.FAILED, now.plusSeconds(delay), error, now)) {
+            meterRegistry.counter("pdf.jobs", "result", "retry").increment();
+            log.info("PDF render job {} (book {}) retried in {}s", job.getId(), job.getBookId(), delay);
+        }
+    }
+    
+    private boolean finish(PdfRenderJobEntity job, PdfRenderJobEntity.Status status, LocalDateTime nextAttemptAt,
+                           String error, LocalDateTime now) {
+        if (jobRepository.finish(job.getId(), clusterNode.getId(), status, nextAttemptAt, error, now) == 0) {
+            // Reclaimed by another instance (we missed our heartbeats), or re-queued meanwhile
+            log.warn("PDF render job {} (book {}) is no longer leased to this instance, dropping its {} result",
+                    job.getId(), job.getBookId(), status);
+            return false;
+        }
+        return true;
+    }
+    
+    private long retryDelaySeconds(int attempts) {
+        return Math.min(retryMaxSeconds, retryBaseSeconds << Math.min(Math.max(attempts - 1, 0), 20));
+    }
+}
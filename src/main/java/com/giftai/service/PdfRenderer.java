@@ -0,0 +1,27 @@
+package com.giftai.service;
+
+import com.giftai.model.BookDocument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Lays out a generated book as an A5 PDF. The engine used for new books is chosen with
+ * {@code pdf.render.engine}.
+ */
+public interface PdfRenderer {
+    
+    /**
+     * Engine name, as used in {@code pdf.render.engine}.
+     */
+    String getName();
+    
+    void render(BookDocument document, String language, OutputStream out) throws IOException;
+    
+    /**
+     * Whether the book is laid out right to left.
+     */
+    static boolean isRightToLeft(String language) {
+        return language != null && (language.equalsIgnoreCase("Arabic") || language.equalsIgnoreCase("Hebrew"));
+    }
+}
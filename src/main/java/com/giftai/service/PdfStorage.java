@@ -0,0 +1,71 @@
+package com.giftai.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Where rendered PDFs are kept. Blobs are content-addressed: the key is derived from the SHA-256
+ * of the PDF ({@code ab/cd/abcd....pdf}), so keys are sharded evenly, never change once written
+ * and double as strong validators. The key is what books store in {@code pdfPath}. The backend is
+ * chosen with {@code pdf.storage.type}.
+ */
+public interface PdfStorage {
+    
+    Pattern CONTENT_KEY = Pattern.compile("[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}\\.pdf");
+    
+    /**
+     * Backend name, as used in {@code pdf.storage.type}.
+     */
+    String getName();
+    
+    /**
+     * Writes a new PDF and stores it under its content key. A reader never sees a partly
+     * written PDF under the key.
+     *
+     * @return the key of the stored PDF
+     */
+    String store(Content content) throws IOException;
+    
+    /**
+     * The PDF as a file on the local disk, or null if this backend does not keep its PDFs locally.
+     */
+    File localFile(String key);
+    
+    /**
+     * A short-lived URL the client can download the PDF from directly, or null if this backend
+     * has none (PDFs on the local disk are served by the app).
+     */
+    URI downloadUrl(String key, String fileName);
+    
+    boolean exists(String key) throws IOException;
+    
+    void delete(String key) throws IOException;
+    
+    /**
+     * The key for a PDF with the given SHA-256: two levels of 256 directories, then the full hash.
+     */
+    static String keyOf(byte[] sha256) {
+        String hex = HexFormat.of().formatHex(sha256);
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4) + "/" + hex + ".pdf";
+    }
+    
+    /**
+     * Whether the key is a content key, as opposed to the path of a PDF rendered before them
+     * ({@code generated-pdfs/book_1_123.pdf}).
+     */
+    static boolean isContentKey(String key) {
+        return CONTENT_KEY.matcher(key).matches();
+    }
+    
+    /**
+     * Writes the PDF's bytes; the stream may be closed by the writer.
+     */
+    @FunctionalInterface
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,217 @@
+package com.giftai.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+
+/**
+ * Keeps PDFs in an S3-compatible bucket (AWS S3, or MinIO as a local stand-in via
+ * {@code pdf.storage.s3.endpoint}), so every instance sees every PDF. A PDF is rendered to a temp
+ * file first and uploaded under its content key only once it is complete; clients download it
+ * straight from the bucket through a short-lived presigned URL.
+ * <p>
+ * Books rendered before content keys have a path under {@code pdf.storage.local.root} as their
+ * key ({@code generated-pdfs/book_1_123.pdf}); those PDFs were never uploaded, so they are served
+ * from the local disk of the instance that rendered them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.storage.type", havingValue = "s3")
+public class S3PdfStorage implements PdfStorage {
+    
+    @Value("${pdf.storage.s3.endpoint:}")
+    private String endpoint;
+    
+    @Value("${pdf.storage.s3.region:us-east-1}")
+    private String region;
+    
+    @Value("${pdf.storage.s3.bucket:giftai-pdfs}")
+    private String bucket;
+    
+    @Value("${pdf.storage.s3.prefix:pdfs/}")
+    private String prefix;
+    
+    @Value("${pdf.storage.s3.access-key:}")
+    private String accessKey;
+    
+    @Value("${pdf.storage.s3.secret-key:}")
+    private String secretKey;
+    
+    // MinIO and most other stand-ins need path-style URLs (http://host/bucket/key)
+    @Value("${pdf.storage.s3.path-style:true}")
+    private boolean pathStyle;
+    
+    @Value("${pdf.storage.s3.url-ttl-seconds:300}")
+    private long urlTtlSeconds;
+    
+    @Value("${pdf.storage.local.root:generated-pdfs}")
+    private String localRoot;
+    
+    private S3Client client;
+    private S3Presigner presigner;
+    
+    @PostConstruct
+    public void init() {
+        AwsCredentialsProvider credentials = accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        S3Configuration configuration = S3Configuration.builder().pathStyleAccessEnabled(pathStyle).build();
+        
+        var clientBuilder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(configuration);
+        var presignerBuilder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .serviceConfiguration(configuration);
+        if (!endpoint.isBlank()) {
+            clientBuilder.endpointOverride(URI.create(endpoint));
+            presignerBuilder.endpointOverride(URI.create(endpoint));
+        }
+        client = clientBuilder.build();
+        presigner = presignerBuilder.build();
+        
+        try {
+            client.headBucket(request -> request.bucket(bucket));
+        } catch (NoSuchBucketException e) {
+            // Mostly for a fresh local stand-in; production buckets are provisioned up front
+            client.createBucket(request -> request.bucket(bucket));
+            log.info("Created PDF bucket {}", bucket);
+        }
+        log.info("PDF storage: S3 bucket {} at {}", bucket, endpoint.isBlank() ? "AWS " + region : endpoint);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        presigner.close();
+        client.close();
+    }
+    
+    @Override
+    public String getName() {
+        return "s3";
+    }
+    
+    @Override
+    public String store(Content content) throws IOException {
+        MessageDigest digest = sha256();
+        Path temp = Files.createTempFile("pdf-", ".part");
+        try {
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024), digest)) {
+                content.writeTo(out);
+            }
+            
+            String key = PdfStorage.keyOf(digest.digest());
+            if (objectExists(key)) {
+                return key;
+            }
+            client.putObject(request -> request.bucket(bucket).key(prefix + key)
+                            .contentType(MediaType.APPLICATION_PDF_VALUE)
+                            // Content-addressed, so the object never changes
+                            .cacheControl("private, max-age=31536000, immutable"),
+                    RequestBody.fromFile(temp));
+            return key;
+        } catch (SdkException e) {
+            throw new IOException("Could not upload PDF to bucket " + bucket, e);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    @Override
+    public File localFile(String key) {
+        return PdfStorage.isContentKey(key) ? null : legacyFile(key).toFile();
+    }
+    
+    @Override
+    public URI downloadUrl(String key, String fileName) {
+        return URI.create(presigner.presignGetObject(presign -> presign
+                        .signatureDuration(Duration.ofSeconds(urlTtlSeconds))
+                        .getObjectRequest(request -> request.bucket(bucket).key(prefix + key)
+                                .responseContentType(MediaType.APPLICATION_PDF_VALUE)
+                                .responseContentDisposition("inline; filename=\"" + fileName + "\"")))
+                .url().toString());
+    }
+    
+    @Override
+    public boolean exists(String key) throws IOException {
+        if (!PdfStorage.isContentKey(key)) {
+            return Files.isRegularFile(legacyFile(key));
+        }
+        try {
+            return objectExists(key);
+        } catch (SdkException e) {
+            throw new IOException("Could not look up PDF " + key + " in bucket " + bucket, e);
+        }
+    }
+    
+    @Override
+    public void delete(String key) throws IOException {
+        if (!PdfStorage.isContentKey(key)) {
+            Files.deleteIfExists(legacyFile(key));
+            return;
+        }
+        try {
+            client.deleteObject(request -> request.bucket(bucket).key(prefix + key));
+        } catch (SdkException e) {
+            throw new IOException("Could not delete PDF " + key + " from bucket " + bucket, e);
+        }
+    }
+    
+    private Path legacyFile(String key) {
+        Path root = Paths.get(localRoot).toAbsolutePath().normalize();
+        Path path = Paths.get(key).toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("PDF key outside of the local PDF directory: " + key);
+        }
+        return path;
+    }
+    
+    private boolean objectExists(String key) {
+        try {
+            client.headObject(request -> request.bucket(bucket).key(prefix + key));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -47,6 +47,9 @@ public class UserService {
                 .build();
     }
     
+    /**
+     * Summary of a book for lists: a short {@code preview} instead of the full content.
+     */
     public BookResponse toBookResponse(BookEntity entity) {
         // Deserialize characters from JSON
         List<CharacterInfo> characters = new ArrayList<>();
@@ -71,7 +74,8 @@ public class UserService {
                 .giver(entity.getGiver())
                 .appearance(entity.getAppearance())
                 .characters(characters.isEmpty() ? null : characters)
-                .content(entity.getContent())
+                .preview(BookService.previewOf(entity.getContent()))
+                .previewTruncated(entity.getContent() != null && entity.getContent().length() > BookService.PREVIEW_LENGTH)
                 .pdfPath(entity.getPdfPath())
                 .pdfReady(entity.getPdfReady())
                 .isPublic(entity.getIsPublic())
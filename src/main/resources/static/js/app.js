@@ -150,22 +150,7 @@ function initializeForm() {
 
         try {
             console.log('Sending request:', bookData);
-            const response = await fetch(`${API_BASE_URL}/generate`, {
-                method: 'POST',
-                headers: getAuthHeaders(),
-                body: JSON.stringify(bookData)
-            });
-
-            console.log('Response status:', response.status);
-            
-            if (!response.ok) {
-                const errorText = await response.text();
-                console.error('Error response:', errorText);
-                hideGeneratingAnimation();
-                throw new Error(`Failed to create book: ${response.status} - ${errorText}`);
-            }
-
-            const result = await response.json();
+            const result = await generateBookStreaming(bookData);
             console.log('Response received:', result);
             
             if (!result || !result.content) {
@@ -199,6 +184,110 @@ function initializeForm() {
     });
 }
 
+// Streams the story into the generating popup as it is written (Server-Sent Events over fetch,
+// since EventSource cannot POST). Falls back to the job API when streaming is not available.
+async function generateBookStreaming(bookData) {
+    const response = await fetch(`${API_BASE_URL}/generate/stream`, {
+        method: 'POST',
+        headers: { ...getAuthHeaders(), 'Accept': 'text/event-stream' },
+        body: JSON.stringify(bookData)
+    });
+
+    console.log('Response status:', response.status);
+
+    if (!response.ok) {
+        const errorText = await response.text();
+        console.error('Error response:', errorText);
+        throw new Error(`Failed to create book: ${response.status} - ${errorText}`);
+    }
+
+    if (!response.body || !response.body.getReader) {
+        return generateBookWithJob(bookData);
+    }
+
+    const preview = document.getElementById('generating-preview');
+    if (preview) {
+        preview.textContent = '';
+        preview.style.display = 'block';
+    }
+
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = '';
+
+    while (true) {
+        const { done, value } = await reader.read();
+        if (done) break;
+        buffer += decoder.decode(value, { stream: true });
+
+        let boundary;
+        while ((boundary = buffer.indexOf('\n\n')) !== -1) {
+            const rawEvent = buffer.slice(0, boundary);
+            buffer = buffer.slice(boundary + 2);
+
+            let eventName = 'message';
+            const dataLines = [];
+            rawEvent.split('\n').forEach(line => {
+                if (line.startsWith('event:')) eventName = line.slice(6).trim();
+                else if (line.startsWith('data:')) dataLines.push(line.slice(5));
+            });
+            if (dataLines.length === 0) continue;
+            const data = JSON.parse(dataLines.join('\n'));
+
+            if (eventName === 'chunk' && preview) {
+                preview.textContent += data.text;
+                preview.scrollTop = preview.scrollHeight;
+            } else if (eventName === 'complete') {
+                return data;
+            } else if (eventName === 'error') {
+                throw new Error(data.message || data.error || 'Book generation failed');
+            }
+        }
+    }
+
+    throw new Error('Connection closed before the book was completed');
+}
+
+async function generateBookWithJob(bookData) {
+    const response = await fetch(`${API_BASE_URL}/generate`, {
+        method: 'POST',
+        headers: getAuthHeaders(),
+        body: JSON.stringify(bookData)
+    });
+
+    if (!response.ok) {
+        const errorText = await response.text();
+        throw new Error(`Failed to create book: ${response.status} - ${errorText}`);
+    }
+
+    const job = await response.json();
+    console.log('Generation job queued:', job);
+    return waitForGenerationJob(job.jobId);
+}
+
+async function waitForGenerationJob(jobId) {
+    while (true) {
+        await new Promise(resolve => setTimeout(resolve, 2000));
+        
+        const response = await fetch(`${API_BASE_URL}/jobs/${jobId}`, {
+            headers: getAuthHeaders()
+        });
+        
+        if (!response.ok) {
+            const errorText = await response.text();
+            throw new Error(`Failed to check book status: ${response.status} - ${errorText}`);
+        }
+        
+        const job = await response.json();
+        if (job.status === 'COMPLETED') {
+            return job.book;
+        }
+        if (job.status === 'FAILED') {
+            throw new Error(job.error || 'Book generation failed');
+        }
+    }
+}
+
 function displayResult(book) {
     console.log('Displaying result:', book);
     
@@ -493,8 +582,8 @@ function displayHistory(books) {
     }
 
     historyContent.innerHTML = books.map(book => {
-        const contentPreview = book.content.substring(0, 200);
-        const hasMore = book.content.length > 200;
+        const contentPreview = book.preview || '';
+        const hasMore = book.previewTruncated;
         
         return `
             <div class="gift-item" data-id="${book.bookId}">
@@ -521,7 +610,7 @@ function displayHistory(books) {
                 <div class="gift-item-content" id="content-${book.bookId}">
                     ${escapeHtml(contentPreview)}${hasMore ? '...' : ''}
                 </div>
-                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId}, ${JSON.stringify(book.content)})">Show More</button>` : ''}
+                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId})">Show More</button>` : ''}
                 <div style="display: flex; gap: 10px; margin-top: 10px;">
                     ${book.pdfReady ? `<button onclick="downloadBookPdf(${book.bookId})" class="btn btn-primary" style="flex: 1;">📥 Download PDF</button>` : '<p style="flex: 1; color: var(--text-secondary); text-align: center; padding: 10px;">⏳ PDF is being generated...</p>'}
                     <button onclick="deleteBookFromHistory(${book.bookId}, event)" class="btn btn-danger" style="flex: 0 0 auto; min-width: 100px;">🗑️ Delete</button>
@@ -547,20 +636,39 @@ function displayHistory(books) {
     });
 }
 
-function toggleContent(id, fullContent) {
+// Lists only carry a preview; the full text is loaded the first time a book is expanded
+const fullContents = {};
+
+async function toggleContent(id) {
     const contentDiv = document.getElementById(`content-${id}`);
     const button = contentDiv.nextElementSibling;
     const isExpanded = contentDiv.classList.contains('gift-item-full');
     
     if (isExpanded) {
         contentDiv.classList.remove('gift-item-full');
-        contentDiv.innerHTML = escapeHtml(fullContent.substring(0, 200)) + '...';
+        contentDiv.innerHTML = escapeHtml(fullContents[id].substring(0, 200)) + '...';
         button.textContent = 'Show More';
-    } else {
-        contentDiv.classList.add('gift-item-full');
-        contentDiv.innerHTML = escapeHtml(fullContent);
-        button.textContent = 'Show Less';
+        return;
     }
+    if (fullContents[id] === undefined) {
+        try {
+            const response = await fetch(`${API_BASE_URL}/${id}`, {
+                headers: isAuthenticated() ? getAuthHeaders() : { 'Content-Type': 'application/json' }
+            });
+            if (!response.ok) {
+                throw new Error('Failed to load book');
+            }
+            const book = await response.json();
+            fullContents[id] = book.content || '';
+        } catch (error) {
+            console.error('Error:', error);
+            showToast('Failed to load book', 'error');
+            return;
+        }
+    }
+    contentDiv.classList.add('gift-item-full');
+    contentDiv.innerHTML = escapeHtml(fullContents[id]);
+    button.textContent = 'Show Less';
 }
 
 async function loadDiscover() {
@@ -604,8 +712,8 @@ function displayDiscoverBooks(books) {
     }
 
     discoverContent.innerHTML = books.map(book => {
-        const contentPreview = book.content.substring(0, 200);
-        const hasMore = book.content.length > 200;
+        const contentPreview = book.preview || '';
+        const hasMore = book.previewTruncated;
         
         return `
             <div class="gift-item" data-id="${book.bookId}">
@@ -624,7 +732,7 @@ function displayDiscoverBooks(books) {
                 <div class="gift-item-content" id="content-${book.bookId}">
                     ${escapeHtml(contentPreview)}${hasMore ? '...' : ''}
                 </div>
-                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId}, ${JSON.stringify(book.content)})">Show More</button>` : ''}
+                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId})">Show More</button>` : ''}
                 ${book.pdfReady ? `<button onclick="viewPublicBook(${book.bookId})" class="btn btn-primary" style="margin-top: 10px; width: 100%;">📖 Read Book</button>` : '<p style="margin-top: 10px; color: var(--text-secondary);">⏳ PDF is being generated...</p>'}
             </div>
         `;
@@ -1316,6 +1424,12 @@ function updateGeneratingMessage(main, sub) {
 function hideGeneratingAnimation() {
     hideLoading();
     
+    const preview = document.getElementById('generating-preview');
+    if (preview) {
+        preview.textContent = '';
+        preview.style.display = 'none';
+    }
+    
     // Clear message interval if exists
     if (window.generatingMessageInterval) {
         clearInterval(window.generatingMessageInterval);
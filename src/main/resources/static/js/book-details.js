@@ -84,7 +84,8 @@ async function loadBookDetails(bookId) {
         console.log('Token exists:', !!token);
         console.log('Headers:', headers);
         
-        const response = await fetch(`${BOOK_API_BASE_URL}/${bookId}`, {
+        // The text is loaded chapter by chapter, see loadChapters
+        const response = await fetch(`${BOOK_API_BASE_URL}/${bookId}?includeContent=false`, {
             headers: headers
         });
         
@@ -210,10 +211,9 @@ function displayBook(book) {
     const shareBar = document.getElementById('share-bar');
     if (shareBar) shareBar.style.display = 'block';
     
-    // Format content with beautiful book-like styling
-    const formattedContent = formatBookContent(book.content);
+    // Load the table of contents and the first chapter
     if (bookContent) {
-        bookContent.innerHTML = formattedContent;
+        loadChapters(book.bookId, bookContent);
     }
     
     // Always start PDF status check - it will automatically load when ready
@@ -232,31 +232,105 @@ function displayBook(book) {
     }
 }
 
-function formatBookContent(content) {
-    if (!content) return '';
+async function loadChapters(bookId, container) {
+    try {
+        const response = await fetch(`${BOOK_API_BASE_URL}/${bookId}/chapters`, {
+            headers: getAuthHeaders()
+        });
+        if (!response.ok) {
+            throw new Error('Failed to load chapters');
+        }
+        const toc = await response.json();
+        
+        let html = '';
+        if (toc.dedication) {
+            html += `<p class="story-dedication">${escapeHtml(toc.dedication)}</p>`;
+        }
+        if (toc.chapters.length > 1) {
+            html += '<ol class="chapter-toc">';
+            toc.chapters.forEach(chapter => {
+                const label = chapter.title || 'Introduction';
+                html += `<li><a href="#${chapter.id}" data-chapter-id="${chapter.id}">${escapeHtml(label)}</a></li>`;
+            });
+            html += '</ol>';
+        }
+        html += '<div id="chapter-text"></div>';
+        container.innerHTML = html;
+        
+        container.querySelectorAll('.chapter-toc a').forEach(link => {
+            link.addEventListener('click', (e) => {
+                e.preventDefault();
+                loadChapter(bookId, link.dataset.chapterId);
+            });
+        });
+        
+        const requested = window.location.hash.substring(1);
+        const first = toc.chapters.find(chapter => chapter.id === requested) || toc.chapters[0];
+        if (first) {
+            await loadChapter(bookId, first.id);
+        }
+    } catch (error) {
+        console.error('Error loading chapters:', error);
+        container.innerHTML = '<p class="story-paragraph">Failed to load the story text.</p>';
+    }
+}
+
+async function loadChapter(bookId, chapterId) {
+    const target = document.getElementById('chapter-text');
+    if (!target) return;
     
-    // Split content into paragraphs
-    const paragraphs = content.split(/\n\n+/);
+    try {
+        const response = await fetch(`${BOOK_API_BASE_URL}/${bookId}/chapters/${encodeURIComponent(chapterId)}`, {
+            headers: getAuthHeaders()
+        });
+        if (!response.ok) {
+            throw new Error('Failed to load chapter');
+        }
+        const chapter = await response.json();
+        target.innerHTML = formatChapter(chapter);
+        
+        target.querySelectorAll('[data-chapter-id]').forEach(button => {
+            button.addEventListener('click', () => {
+                loadChapter(bookId, button.dataset.chapterId);
+                target.scrollIntoView({ behavior: 'smooth' });
+            });
+        });
+        document.querySelectorAll('.chapter-toc a').forEach(link => {
+            link.classList.toggle('active', link.dataset.chapterId === chapterId);
+        });
+        history.replaceState(null, '', `#${chapterId}`);
+    } catch (error) {
+        console.error('Error loading chapter:', error);
+        target.innerHTML = '<p class="story-paragraph">Failed to load this chapter.</p>';
+    }
+}
+
+function formatChapter(chapter) {
     let formatted = '';
+    if (chapter.title) {
+        formatted += `<h2 class="chapter-heading">${escapeHtml(chapter.title)}</h2>`;
+    }
     
-    paragraphs.forEach((para, index) => {
-        para = para.trim();
-        if (para.length === 0) return;
-        
-        // Check if it's a chapter heading
-        const chapterPattern = /^(Chapter|Bölüm|Kapitel|Chapitre|Capítulo|Capitolo|Глава|章|章|الفصل|Kapitel|Kapitulo)\s+\d+/i;
-        if (chapterPattern.test(para)) {
-            formatted += `<h2 class="chapter-heading">${escapeHtml(para)}</h2>`;
-        } else if (para.length < 100 && para.match(/^[A-Z][^.!?]*[.!?]?$/)) {
-            // Might be a section title
-            formatted += `<h3 class="section-heading">${escapeHtml(para)}</h3>`;
+    chapter.blocks.forEach(block => {
+        if (block.type === 'SECTION_TITLE') {
+            formatted += `<h3 class="section-heading">${escapeHtml(block.text)}</h3>`;
         } else {
-            // Regular paragraph - replace single newlines with spaces
-            const cleanPara = para.replace(/\n/g, ' ').replace(/\s+/g, ' ').trim();
-            formatted += `<p class="story-paragraph">${escapeHtml(cleanPara)}</p>`;
+            formatted += `<p class="story-paragraph">${escapeHtml(block.text)}</p>`;
         }
     });
     
+    if (chapter.previousId || chapter.nextId) {
+        formatted += '<div class="chapter-nav">';
+        formatted += chapter.previousId
+            ? `<button class="btn btn-secondary" data-chapter-id="${chapter.previousId}">← Previous</button>`
+            : '<span></span>';
+        formatted += `<span class="chapter-position">${chapter.index} / ${chapter.totalChapters}</span>`;
+        formatted += chapter.nextId
+            ? `<button class="btn btn-secondary" data-chapter-id="${chapter.nextId}">Next →</button>`
+            : '<span></span>';
+        formatted += '</div>';
+    }
+    
     return formatted;
 }
 
@@ -433,7 +507,7 @@ function startPdfStatusCheck(bookId) {
                     pdfCheckInterval = null;
                     
                     // Reload book details to get PDF path
-                    const bookResponse = await fetch(`${BOOK_API_BASE_URL}/${bookId}`, {
+                    const bookResponse = await fetch(`${BOOK_API_BASE_URL}/${bookId}?includeContent=false`, {
                         headers: headers
                     });
                     if (bookResponse.ok) {
@@ -449,6 +523,13 @@ function startPdfStatusCheck(bookId) {
                             }
                         }, 500);
                     }
+                } else if (status.renderStatus === 'DEAD') {
+                    // The server gave up after several attempts; polling longer will not help
+                    clearInterval(pdfCheckInterval);
+                    pdfCheckInterval = null;
+                    const pdfLoading = document.getElementById('pdf-loading');
+                    if (pdfLoading) pdfLoading.style.display = 'none';
+                    showToast('The PDF could not be created. Please try again later.', 'error');
                 }
             }
         } catch (error) {
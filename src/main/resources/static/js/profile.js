@@ -90,8 +90,8 @@ function displayBooks(books) {
     }
 
     booksContent.innerHTML = books.map(book => {
-        const contentPreview = book.content.substring(0, 200);
-        const hasMore = book.content.length > 200;
+        const contentPreview = book.preview || '';
+        const hasMore = book.previewTruncated;
         
         return `
             <div class="gift-item" data-id="${book.bookId}">
@@ -118,7 +118,7 @@ function displayBooks(books) {
                 <div class="gift-item-content" id="content-${book.bookId}">
                     ${escapeHtml(contentPreview)}${hasMore ? '...' : ''}
                 </div>
-                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId}, ${JSON.stringify(book.content)})">Show More</button>` : ''}
+                ${hasMore ? `<button class="btn btn-secondary" style="margin-top: 10px; width: 100%;" onclick="toggleContent(${book.bookId})">Show More</button>` : ''}
                 <div style="display: flex; gap: 10px; margin-top: 10px;">
                     ${book.pdfReady ? `<a href="${API_BASE_URL}/${book.bookId}/pdf" target="_blank" class="btn btn-primary" style="flex: 1; text-decoration: none; display: inline-block; text-align: center;">📥 Download PDF</a>` : '<p style="flex: 1; color: var(--text-secondary); text-align: center; padding: 10px;">⏳ PDF is being generated...</p>'}
                     <button onclick="deleteBook(${book.bookId}, event)" class="btn btn-danger" style="flex: 0 0 auto; min-width: 100px;">🗑️ Delete</button>
@@ -137,20 +137,39 @@ function displayBooks(books) {
     });
 }
 
-function toggleContent(id, fullContent) {
+// Lists only carry a preview; the full text is loaded the first time a book is expanded
+const fullContents = {};
+
+async function toggleContent(id) {
     const contentDiv = document.getElementById(`content-${id}`);
     const button = contentDiv.nextElementSibling;
     const isExpanded = contentDiv.classList.contains('gift-item-full');
     
     if (isExpanded) {
         contentDiv.classList.remove('gift-item-full');
-        contentDiv.innerHTML = escapeHtml(fullContent.substring(0, 200)) + '...';
+        contentDiv.innerHTML = escapeHtml(fullContents[id].substring(0, 200)) + '...';
         button.textContent = 'Show More';
-    } else {
-        contentDiv.classList.add('gift-item-full');
-        contentDiv.innerHTML = escapeHtml(fullContent);
-        button.textContent = 'Show Less';
+        return;
+    }
+    if (fullContents[id] === undefined) {
+        try {
+            const response = await fetch(`${API_BASE_URL}/${id}`, {
+                headers: getAuthHeaders()
+            });
+            if (!response.ok) {
+                throw new Error('Failed to load book');
+            }
+            const book = await response.json();
+            fullContents[id] = book.content || '';
+        } catch (error) {
+            console.error('Error:', error);
+            showToast('Failed to load book', 'error');
+            return;
+        }
     }
+    contentDiv.classList.add('gift-item-full');
+    contentDiv.innerHTML = escapeHtml(fullContents[id]);
+    button.textContent = 'Show Less';
 }
 
 function setupLogout() {